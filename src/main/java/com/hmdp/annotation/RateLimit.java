@@ -0,0 +1,60 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/20 10:10
+ * @description 接口限流，滑动窗口内同一个维度的值最多允许 permits 次请求，可以重复标注按多个维度同时限流
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(RateLimits.class)
+public @interface RateLimit {
+    /**
+     * 限流名称，用于区分接口
+     */
+    String name();
+
+    /**
+     * 限流维度
+     */
+    Dimension dimension();
+
+    /**
+     * 窗口内允许的请求数
+     */
+    int permits();
+
+    /**
+     * 窗口大小
+     */
+    int window() default 1;
+
+    /**
+     * 窗口大小的时间单位
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    enum Dimension {
+        /**
+         * 请求参数 phone
+         */
+        PHONE,
+        /**
+         * 当前登录用户id
+         */
+        USER,
+        /**
+         * 客户端ip
+         */
+        IP
+    }
+}
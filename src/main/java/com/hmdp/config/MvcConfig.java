@@ -1,13 +1,19 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
+import com.hmdp.interceptor.RateLimitInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.SignedTokenService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * mvc配置
@@ -18,7 +24,17 @@ import javax.annotation.Resource;
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokenService signedTokenService;
+    @Resource
+    private RateLimiter rateLimiter;
+
+    /**
+     * 管理员用户id
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private List<Long> adminIds;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -34,10 +50,20 @@ public class MvcConfig implements WebMvcConfigurer {
                         , "/voucher/**"
                 )
                 .order(1);
+        //管理接口拦截器，秒杀库存的补充和同步在 /voucher/** 下，不经过登录拦截器
+        registry
+                .addInterceptor(new AdminInterceptor(adminIds))
+                .addPathPatterns("/voucher/seckill/stock/**")
+                .order(1);
         //Token续命拦截器
         registry
-                .addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+                .addInterceptor(new RefreshTokenInterceptor(loginSessionCache, signedTokenService))
                 .addPathPatterns("/**")
                 .order(0);
+        //限流拦截器，在登录拦截器之后执行，可以按用户限流
+        registry
+                .addInterceptor(new RateLimitInterceptor(rateLimiter))
+                .addPathPatterns("/**")
+                .order(2);
     }
 }
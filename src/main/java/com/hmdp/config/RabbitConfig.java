@@ -1,10 +1,17 @@
 package com.hmdp.config;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.retry.MessageBatchRecoverer;
 import org.springframework.amqp.rabbit.retry.RejectAndDontRequeueRecoverer;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.retry.interceptor.RetryOperationsInterceptor;
@@ -15,20 +22,111 @@ import org.springframework.retry.interceptor.RetryOperationsInterceptor;
  * @date 2023/11/30 16:45
  * @description rabbitmq 配置
  */
+@Slf4j
 @Configuration
 public class RabbitConfig {
+    /**
+     * 秒杀队列
+     */
+    public static final String SECKILL_QUEUE = "seckillQueue";
+
+    /**
+     * 博文推送队列
+     */
+    public static final String FEED_QUEUE = "feedQueue";
 
     @Autowired
     private ConnectionFactory connectionFactory;
 
+    /**
+     * 每个监听容器的初始消费者数
+     */
+    @Value("${hmdp.seckill.mq.concurrency:4}")
+    private Integer concurrency;
+
+    /**
+     * 每个监听容器的最大消费者数
+     */
+    @Value("${hmdp.seckill.mq.max-concurrency:8}")
+    private Integer maxConcurrency;
+
+    /**
+     * 每个消费者未确认消息的最大数量
+     */
+    @Value("${hmdp.seckill.mq.prefetch:50}")
+    private Integer prefetch;
+
+    /**
+     * 批量消费时每批最多的消息数
+     */
+    @Value("${hmdp.seckill.batch.size:100}")
+    private Integer batchSize;
+
+    /**
+     * 批量消费时凑批的最长等待时间，单位：毫秒
+     */
+    @Value("${hmdp.seckill.batch.max-linger:100}")
+    private Long batchMaxLinger;
+
+    /**
+     * 声明秒杀队列，保证只发送消息的节点也能正常投递
+     */
+    @Bean
+    public Queue seckillQueue() {
+        return new Queue(SECKILL_QUEUE, true);
+    }
+
+    /**
+     * 声明博文推送队列
+     */
+    @Bean
+    public Queue feedQueue() {
+        return new Queue(FEED_QUEUE, true);
+    }
+
+    /**
+     * 使用 json 代替 jdk 序列化，消息体更小且不依赖类的序列化版本
+     */
+    @Bean
+    public MessageConverter messageConverter() {
+        return new Jackson2JsonMessageConverter();
+    }
+
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory() {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter());
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(maxConcurrency);
+        factory.setPrefetchCount(prefetch);
         factory.setAdviceChain(retryOperationsInterceptor());
         return factory;
     }
 
+    /**
+     * 批量消费的监听容器，整批消息处理成功（事务提交）后才会确认
+     * <p>
+     * 容器逐条接收消息凑批，某次接收等待 receiveTimeout 仍没有消息时立即交付已经凑到的消息，
+     * 因此 max-linger 是凑批时等待下一条消息的最长时间，不会按批量大小累加
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory() {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter());
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(maxConcurrency);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        //预取数量至少能凑满一批
+        factory.setPrefetchCount(Math.max(prefetch, batchSize));
+        factory.setReceiveTimeout(batchMaxLinger);
+        factory.setAdviceChain(batchRetryOperationsInterceptor());
+        return factory;
+    }
+
     @Bean
     public RetryOperationsInterceptor retryOperationsInterceptor() {
         return RetryInterceptorBuilder.stateless()
@@ -37,5 +135,18 @@ public class RabbitConfig {
                 .recoverer(new RejectAndDontRequeueRecoverer())   // 所有重试尝试都失败后的恢复策略
                 .build();
     }
-}
 
+    @Bean
+    public RetryOperationsInterceptor batchRetryOperationsInterceptor() {
+        return RetryInterceptorBuilder.stateless()
+                .maxAttempts(5)   // 最大重试次数
+                .backOffOptions(1000, 2.0, 10000)   // 初始间隔，乘数，最大间隔
+                .recoverer((MessageBatchRecoverer) (messages, cause) -> {
+                    //监听器整批失败时已经逐条落库，所有重试尝试都失败后只剩逐条也失败的订单，整批拒绝，不再重新入队，
+                    //已经落库的订单重复投递时会被跳过
+                    log.error("批量消费失败，消息数：{}，原因：{}", messages.size(), cause.getMessage());
+                    throw new AmqpRejectAndDontRequeueException("批量消费重试失败", cause);
+                })
+                .build();
+    }
+}
@@ -21,4 +21,19 @@ public class CommonConstant {
      * 最大锁释放时间
      */
     public static final Integer MAX_LEASE_TIME = 60;
+
+    /**
+     * 优惠券元数据缓存时间，单位：分钟
+     */
+    public static final Long VOUCHER_CACHE_TTL = 30L;
+
+    /**
+     * 已落库的秒杀订单标记保留时间，单位：小时
+     */
+    public static final Long ORDER_DONE_TTL = 24L;
+
+    /**
+     * 雪花 id 工作节点租期，单位：毫秒
+     */
+    public static final Long ID_WORKER_LEASE_TTL = 60000L;
 }
@@ -13,8 +13,142 @@ public class RedisKeyConstant {
     public static final String SEC_KILL_KEY = "lock:seckill:%s";
 
     /**
-     * 优惠券 key
+     * 优惠券已下单用户集合 key，用于一人一单
      */
-    public static final String VOUCHER_KEY = "voucher:%s";
+    public static final String SECKILL_ORDER_KEY = "user_voucher:%s";
 
+    /**
+     * 秒杀库存变更频道，用于通知各节点清除本地缓存
+     */
+    public static final String SECKILL_STOCK_CHANNEL = "channel:seckill:stock";
+
+    /**
+     * 已落库的秒杀订单标记 key，用于消费幂等
+     */
+    public static final String SECKILL_ORDER_DONE_KEY = "seckill:order:done:%s";
+
+    /**
+     * 雪花 id 工作节点租约 key
+     */
+    public static final String ID_WORKER_KEY = "id:worker:%s";
+
+    /**
+     * 缓存失效频道，用于通知各节点清除本地缓存
+     */
+    public static final String CACHE_INVALIDATE_CHANNEL = "channel:cache:invalidate";
+
+    /**
+     * 缓存重建互斥锁 key，%s 为缓存 key
+     */
+    public static final String CACHE_LOCK_KEY = "lock:%s";
+
+    /**
+     * 店铺 id 布隆过滤器 key
+     */
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+
+    /**
+     * 秒杀优惠券 id 布隆过滤器 key
+     */
+    public static final String BLOOM_VOUCHER_KEY = "bloom:voucher";
+
+    /**
+     * 用户 id 布隆过滤器 key
+     */
+    public static final String BLOOM_USER_KEY = "bloom:user";
+
+    /**
+     * 布隆过滤器加载完成标记 key，%s 为布隆过滤器 key
+     */
+    public static final String BLOOM_READY_KEY = "%s:ready";
+
+    /**
+     * 退出登录频道，用于通知各节点清除本地缓存的登录会话
+     */
+    public static final String LOGIN_LOGOUT_CHANNEL = "channel:login:logout";
+
+    /**
+     * 已吊销的无状态令牌id，score 为令牌过期时间
+     */
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+
+    /**
+     * 用户的登录 token 索引 key，score 为 token 过期时间，用于退出所有设备
+     */
+    public static final String LOGIN_USER_TOKENS_KEY = "login:user:tokens:%s";
+
+    /**
+     * 登录 token 清理任务锁 key，同一时间只有一个节点执行
+     */
+    public static final String LOGIN_SWEEP_LOCK_KEY = "lock:login:sweep";
+
+    /**
+     * 接口限流 key，依次为限流名称、限流维度、维度的值
+     */
+    public static final String RATE_LIMIT_KEY = "limit:%s:%s:%s";
+
+    /**
+     * 签到归档任务锁 key，同一时间只有一个节点执行
+     */
+    public static final String SIGN_ARCHIVE_LOCK_KEY = "lock:sign:archive";
+
+    /**
+     * 热门博文排名 key，score 为衰减后的排名分数
+     */
+    public static final String BLOG_HOT_KEY = "blog:hot";
+
+    /**
+     * 热门博文互动权重 key，score 为点赞、评论折算的权重
+     */
+    public static final String BLOG_HOT_WEIGHT_KEY = "blog:hot:weight";
+
+    /**
+     * 热门博文发布时间 key，score 为发布时间，单位：毫秒
+     */
+    public static final String BLOG_HOT_TIME_KEY = "blog:hot:time";
+
+    /**
+     * 热门博文排名加载完成标记 key
+     */
+    public static final String BLOG_HOT_READY_KEY = "blog:hot:ready";
+
+    /**
+     * 热门博文排名加载和重新计算的锁 key
+     */
+    public static final String BLOG_HOT_LOCK_KEY = "lock:blog:hot";
+
+    /**
+     * 博文点赞数 hash，field 为博文id，尚未落库的点赞数以这里为准
+     */
+    public static final String BLOG_LIKE_COUNT_KEY = "blog:like:count";
+
+    /**
+     * 点赞数有变化、待落库的博文id集合
+     */
+    public static final String BLOG_LIKE_DIRTY_KEY = "blog:like:dirty";
+
+    /**
+     * 点赞数落库任务锁 key
+     */
+    public static final String BLOG_LIKE_FLUSH_LOCK_KEY = "lock:blog:like:flush";
+
+    /**
+     * 作者发件箱 key，score 为发布时间，粉丝过多的作者不推送，由粉丝从发件箱拉取
+     */
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:%s";
+
+    /**
+     * 只写发件箱的大V作者id集合
+     */
+    public static final String FEED_BIG_AUTHOR_KEY = "feed:big-authors";
+
+    /**
+     * 用户关注的人集合 key，包含一个占位成员，空集合也能区分是否已经加载
+     */
+    public static final String FOLLOWS_KEY = "follows:%s";
+
+    /**
+     * 用户的粉丝集合 key，包含一个占位成员
+     */
+    public static final String FOLLOWERS_KEY = "followers:%s";
 }
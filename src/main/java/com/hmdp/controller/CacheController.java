@@ -0,0 +1,77 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 缓存运维接口
+ * </p>
+ *
+ * @author zhangxiulin
+ * @since 2023-12-14
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 手动触发缓存预热，后台执行
+     * @return 无
+     */
+    @PostMapping("/warm-up")
+    public Result warmUp() {
+        if (!cacheWarmer.warmUpAsync()) {
+            return Result.fail("缓存预热正在执行");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询缓存预热进度
+     * @return 预热进度
+     */
+    @GetMapping("/warm-up")
+    public Result queryWarmUpProgress() {
+        return Result.ok(cacheWarmer.getProgress());
+    }
+
+    /**
+     * 查询缓存统计：本地缓存命中、逻辑过期重建任务和重建线程池排队数
+     * @return 缓存统计
+     */
+    @GetMapping("/stats")
+    public Result queryStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("local", cacheClient.getLocalStats());
+        stats.put("rebuild", cacheClient.getRebuildStats());
+        stats.put("rebuildQueueSize", cacheClient.getRebuildQueueSize());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 从数据库重建用户的关注集合和粉丝集合
+     * @param userId 用户id
+     * @return 无
+     */
+    @PostMapping("/follow/{userId}/rebuild")
+    public Result rebuildFollowCache(@PathVariable("userId") Long userId) {
+        followService.rebuildFollowCache(userId);
+        return Result.ok();
+    }
+}
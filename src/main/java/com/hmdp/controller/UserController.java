@@ -2,6 +2,7 @@ package com.hmdp.controller;
 
 
 import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.annotation.RateLimit;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
@@ -9,12 +10,16 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 
 /**
  * <p>
@@ -35,10 +40,15 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
     /**
      * 发送手机验证码
      */
     @PostMapping("code")
+    @RateLimit(name = "code", dimension = RateLimit.Dimension.IP, permits = 20, window = 60)
+    @RateLimit(name = "code", dimension = RateLimit.Dimension.PHONE, permits = 1, window = 60)
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
         // 发送短信验证码并保存验证码
         return userService.sendCode(phone,session);
@@ -59,9 +69,17 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(HttpServletRequest request){
+        return userService.logout(request.getHeader("authorization"));
+    }
+
+    /**
+     * 退出所有设备
+     * @return 无
+     */
+    @PostMapping("/logout/all")
+    public Result logoutAll(HttpServletRequest request){
+        return userService.logoutAll(request.getHeader("authorization"));
     }
 
     @GetMapping("/me")
@@ -85,6 +103,10 @@ public class UserController {
     }
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id")Long userId){
+        //布隆过滤器判断不存在的用户直接返回，不访问数据库
+        if (!idBloomFilter.mightContainUser(userId)){
+            return Result.ok();
+        }
         User user = userService.getById(userId);
         if (user==null){
             return Result.ok();
@@ -100,5 +122,25 @@ public class UserController {
     public Result signCount(){
         return userService.signCount();
     }
+    /**
+     * 统计某个月的签到天数
+     * @param month 月份，格式 yyyy-MM，默认本月
+     */
+    @GetMapping("/sign/month")
+    public Result signMonthCount(@RequestParam(value = "month", required = false) String month){
+        if (month == null) {
+            return userService.signMonthCount(YearMonth.now());
+        }
+        YearMonth yearMonth;
+        try {
+            yearMonth = YearMonth.parse(month);
+        } catch (DateTimeParseException e) {
+            return Result.fail("月份格式错误");
+        }
+        if (yearMonth.isAfter(YearMonth.now())) {
+            return Result.fail("月份不能晚于本月");
+        }
+        return userService.signMonthCount(yearMonth);
+    }
 
 }
@@ -45,6 +45,37 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 优惠券id
+     * @param count 补充的数量
+     * @return 无
+     */
+    @PutMapping("seckill/stock/{id}")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充数量必须大于0");
+        }
+        if (!voucherService.addSeckillStock(voucherId, count)) {
+            return Result.fail("秒杀券不存在");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * redis 库存丢失后重新同步秒杀券库存，需要在下单消息消费完后执行
+     * @param voucherId 优惠券id
+     * @return 同步后的库存
+     */
+    @PostMapping("seckill/stock/{id}/sync")
+    public Result syncSeckillStock(@PathVariable("id") Long voucherId) {
+        long stock = voucherService.syncSeckillStock(voucherId);
+        if (stock < 0) {
+            return Result.fail("秒杀券不存在或库存已经存在");
+        }
+        return Result.ok(stock);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
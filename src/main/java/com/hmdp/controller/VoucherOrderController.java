@@ -1,6 +1,7 @@
 package com.hmdp.controller;
 
 
+import com.hmdp.annotation.RateLimit;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -27,6 +28,8 @@ public class VoucherOrderController {
 
 
     @PostMapping("seckill/{id}")
+    @RateLimit(name = "seckill", dimension = RateLimit.Dimension.USER, permits = 5)
+    @RateLimit(name = "seckill", dimension = RateLimit.Dimension.IP, permits = 50)
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
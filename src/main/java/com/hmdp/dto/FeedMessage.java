@@ -0,0 +1,20 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 博文推送消息
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeedMessage {
+    private Long blogId;
+    private Long authorId;
+    /**
+     * 发布时间戳，收件箱中的分数
+     */
+    private Long time;
+}
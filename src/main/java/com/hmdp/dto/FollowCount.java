@@ -0,0 +1,15 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class FollowCount {
+    /**
+     * 关注数
+     */
+    private Long follows;
+    /**
+     * 粉丝数
+     */
+    private Long followers;
+}
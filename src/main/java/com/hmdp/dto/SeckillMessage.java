@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀下单消息
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillMessage {
+    private Long userId;
+    private Long voucherId;
+    private Long orderId;
+}
@@ -0,0 +1,45 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 管理接口拦截器，只允许配置的管理员调用
+ *
+ * @author zhangxiulin
+ * @date 2023/12/26 10:20
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+    private static final int FORBIDDEN = 403;
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(List<Long> adminIds) {
+        this.adminIds = new HashSet<>(adminIds);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request,
+                             HttpServletResponse response,
+                             Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            //未登录
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminIds.contains(user.getId())) {
+            //不是管理员
+            response.setStatus(FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+}
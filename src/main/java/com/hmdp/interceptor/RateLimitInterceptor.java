@@ -0,0 +1,102 @@
+package com.hmdp.interceptor;
+
+import com.alibaba.fastjson.JSON;
+import com.hmdp.annotation.RateLimit;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RateLimiter;
+import com.hmdp.utils.UserHolder;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.constant.RedisKeyConstant.RATE_LIMIT_KEY;
+
+/**
+ * 限流拦截器，按接口上的 {@link RateLimit} 注解限流，没有注解的接口直接放行
+ *
+ * @author zhangxiulin
+ * @date 2023/12/20 11:00
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * 接口方法上的限流注解
+     */
+    private final Map<Method, RateLimit[]> rateLimits = new ConcurrentHashMap<>();
+
+    public RateLimitInterceptor(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        RateLimit[] limits = rateLimits.computeIfAbsent(((HandlerMethod) handler).getMethod(),
+                method -> method.getAnnotationsByType(RateLimit.class));
+        List<String> keys = new ArrayList<>(limits.length);
+        int[] permits = new int[limits.length];
+        long[] windows = new long[limits.length];
+        for (RateLimit limit : limits) {
+            String value = dimensionValue(limit.dimension(), request);
+            if (value == null) {
+                //取不到维度的值时不限流，例如未登录
+                continue;
+            }
+            permits[keys.size()] = limit.permits();
+            windows[keys.size()] = limit.unit().toMillis(limit.window());
+            keys.add(String.format(RATE_LIMIT_KEY, limit.name(), limit.dimension().name().toLowerCase(), value));
+        }
+        //所有维度一起判断，被某个维度拒绝的请求不占用其他维度的许可，例如被 ip 限流的请求不会占用手机号的许可
+        if (!rateLimiter.tryAcquire(keys, permits, windows)) {
+            response.setStatus(TOO_MANY_REQUESTS);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(JSON.toJSONString(Result.fail("请求过于频繁，请稍后再试")));
+            return false;
+        }
+        return true;
+    }
+
+    private String dimensionValue(RateLimit.Dimension dimension, HttpServletRequest request) {
+        switch (dimension) {
+            case PHONE:
+                String phone = request.getParameter("phone");
+                return StringUtils.hasText(phone) ? phone : null;
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                return user == null ? null : user.getId().toString();
+            case IP:
+                return clientIp(request);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 客户端ip，经过 nginx 转发时取 X-Forwarded-For 的第一个地址，nginx 需要覆盖客户端传入的该请求头
+     */
+    private String clientIp(HttpServletRequest request) {
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (StringUtils.hasText(forwarded)) {
+            int index = forwarded.indexOf(',');
+            return (index > 0 ? forwarded.substring(0, index) : forwarded).trim();
+        }
+        return request.getRemoteAddr();
+    }
+}
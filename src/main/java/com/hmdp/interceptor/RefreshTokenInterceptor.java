@@ -1,29 +1,31 @@
 package com.hmdp.interceptor;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedTokenService;
 import com.hmdp.utils.UserHolder;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 刷新令牌拦截器
+ * <p>
+ * 用户信息和续期由 {@link LoginSessionCache} 处理，本地缓存命中且剩余有效期充足时不访问 redis。
+ * 无状态令牌由 {@link SignedTokenService} 在本地校验，不续期
  *
  * @author CHEN
  * @date 2022/10/07
  */
 public class RefreshTokenInterceptor implements HandlerInterceptor {
-    private final StringRedisTemplate stringRedisTemplate;
+    private final LoginSessionCache loginSessionCache;
+    private final SignedTokenService signedTokenService;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokenService signedTokenService) {
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokenService = signedTokenService;
     }
 
     @Override
@@ -34,18 +36,16 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             //不存在token
             return true;
         }
-        //从redis中获取用户
-        Map<Object, Object> userMap =
-                stringRedisTemplate.opsForHash()
-                        .entries(RedisConstants.LOGIN_USER_KEY + token);
+        //无状态令牌本地校验，否则从本地缓存或redis中获取用户，必要时token续命
+        UserDTO user = SignedTokenService.isSignedToken(token)
+                ? signedTokenService.verify(token)
+                : loginSessionCache.getUser(token);
         //用户不存在
-        if (userMap.isEmpty()) {
+        if (user == null) {
             return true;
         }
-        //hash转UserDTO存入ThreadLocal
-        UserHolder.saveUser(BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false));
-        //token续命
-        stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY + token, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        //存入ThreadLocal
+        UserHolder.saveUser(user);
         return true;
     }
 
@@ -0,0 +1,42 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.constant.RedisKeyConstant.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/12 15:10
+ * @description 缓存失效监听器，清除本节点的本地缓存
+ */
+@Slf4j
+@Component
+public class CacheInvalidateListener implements MessageListener {
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private CacheClient cacheClient;
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.warn("接收到缓存失效消息，key：{}", key);
+        cacheClient.invalidateLocal(key);
+    }
+}
@@ -0,0 +1,28 @@
+package com.hmdp.listener;
+
+import com.hmdp.dto.FeedMessage;
+import com.hmdp.service.IBlogService;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.config.RabbitConfig.FEED_QUEUE;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/27 10:20
+ * @description 博文推送消息监听器，在消费者线程中把博文推送到粉丝收件箱，发布接口的耗时不随粉丝数增长
+ */
+@Service
+public class FeedMessageListener {
+
+    @Resource
+    private IBlogService blogService;
+
+    @RabbitListener(queues = FEED_QUEUE)
+    public void receiveFeedMessage(FeedMessage message) {
+        //同一条博文重复推送时分数不变，抛出异常时按重试策略重新消费
+        blogService.pushFeed(message);
+    }
+}
@@ -0,0 +1,48 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedTokenService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.constant.RedisKeyConstant.LOGIN_LOGOUT_CHANNEL;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/18 10:50
+ * @description 退出登录监听器，清除本节点缓存的登录会话，无状态令牌加入本节点的吊销布隆过滤器
+ */
+@Slf4j
+@Component
+public class LoginLogoutListener implements MessageListener {
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokenService signedTokenService;
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_LOGOUT_CHANNEL));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String token = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (SignedTokenService.isSignedToken(token)) {
+            signedTokenService.onRevoked(token);
+        } else {
+            loginSessionCache.invalidate(token);
+        }
+    }
+}
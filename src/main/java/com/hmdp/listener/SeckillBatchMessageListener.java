@@ -0,0 +1,71 @@
+package com.hmdp.listener;
+
+import com.hmdp.dto.SeckillMessage;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.config.RabbitConfig.SECKILL_QUEUE;
+
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/7 10:30
+ * @description 秒杀消息批量监听器，一批消息在一个事务中落库，事务提交后整批确认；整批失败时逐条落库
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "hmdp.seckill.batch.enabled", havingValue = "true")
+public class SeckillBatchMessageListener {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @RabbitListener(queues = SECKILL_QUEUE, containerFactory = "batchRabbitListenerContainerFactory")
+    public void receiveSeckillMessages(List<SeckillMessage> messages) {
+        log.warn("接收到秒杀信息：{} 条", messages.size());
+
+        List<VoucherOrder> orders = messages.stream()
+                .map(message -> {
+                    VoucherOrder voucherOrder = new VoucherOrder();
+                    voucherOrder.setId(message.getOrderId());
+                    voucherOrder.setUserId(message.getUserId());
+                    voucherOrder.setVoucherId(message.getVoucherId());
+                    return voucherOrder;
+                })
+                .collect(Collectors.toList());
+
+        try {
+            //多行插入订单并合并扣减库存
+            voucherOrderService.createSeckillOrders(orders);
+        } catch (RuntimeException e) {
+            log.error("秒杀订单批量落库失败，改为逐条落库，消息数：{}", orders.size(), e);
+            createOneByOne(orders);
+        }
+    }
+
+    /**
+     * 逐条落库，一条异常的消息不影响同批其他订单。仍有失败时抛出异常，按重试策略重新消费整批，已经落库的订单会被跳过
+     */
+    private void createOneByOne(List<VoucherOrder> orders) {
+        RuntimeException failure = null;
+        for (VoucherOrder order : orders) {
+            try {
+                voucherOrderService.createSeckillOrder(order);
+            } catch (RuntimeException e) {
+                log.error("秒杀订单落库失败，订单id：{}", order.getId(), e);
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
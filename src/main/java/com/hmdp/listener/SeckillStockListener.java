@@ -0,0 +1,46 @@
+package com.hmdp.listener;
+
+import com.hmdp.utils.SeckillLocalCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.constant.RedisKeyConstant.SECKILL_STOCK_CHANNEL;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/6 14:50
+ * @description 秒杀库存变更监听器，清除本节点的优惠券本地缓存和售罄标记
+ */
+@Slf4j
+@Component
+public class SeckillStockListener implements MessageListener {
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private SeckillLocalCache seckillLocalCache;
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_STOCK_CHANNEL));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String voucherId = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.warn("接收到秒杀库存变更消息，优惠券id：{}", voucherId);
+        try {
+            seckillLocalCache.invalidate(Long.valueOf(voucherId));
+        } catch (NumberFormatException e) {
+            log.error("秒杀库存变更消息格式错误：{}", voucherId);
+        }
+    }
+}
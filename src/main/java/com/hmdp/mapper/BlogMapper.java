@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量设置点赞数，一条语句更新多篇博文
+     *
+     * @param blogs 博文列表，只使用 id 和 liked
+     * @return 更新的行数
+     */
+    int updateLikedBatch(@Param("blogs") List<Blog> blogs);
 }
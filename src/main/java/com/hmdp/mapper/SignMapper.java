@@ -0,0 +1,26 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.Sign;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author zhangxiulin
+ * @since 2023-12-21
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    /**
+     * 多行插入签到记录，已经归档过的日期忽略，归档任务可以重复执行
+     *
+     * @param signs 签到记录列表
+     * @return 插入的行数
+     */
+    int insertIgnoreBatch(@Param("signs") List<Sign> signs);
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,11 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    /**
+     * 发表评论，同时更新博文的评论数和热门排名
+     *
+     * @param comment 评论
+     * @return {@link Result}
+     */
+    Result saveComment(BlogComments comment);
 }
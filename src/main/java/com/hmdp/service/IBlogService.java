@@ -1,5 +1,7 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.FeedMessage;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +15,59 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    /**
+     * 分页查询热门博文，并填充作者信息
+     *
+     * @param current 页码
+     * @return {@link Result}
+     */
+    Result queryHotBlog(Integer current);
+
+    /**
+     * 发布博文
+     *
+     * @param blog 博文
+     * @return {@link Result}
+     */
+    Result saveBlog(Blog blog);
+
+    /**
+     * 点赞，已经点赞时取消点赞
+     *
+     * @param id 博文id
+     * @return {@link Result}
+     */
+    Result likeBlog(Long id);
+
+    /**
+     * 查询博文详情
+     *
+     * @param id 博文id
+     * @return {@link Result}
+     */
+    Result queryBlogById(Long id);
+
+    /**
+     * 查询最早点赞的用户
+     *
+     * @param id 博文id
+     * @return {@link Result}
+     */
+    Result queryBlogLikes(Long id);
+
+    /**
+     * 滚动分页查询关注的人发布的博文
+     *
+     * @param max    上一页最后一条的时间戳，第一页为当前时间
+     * @param offset 上一页中与最后一条时间戳相同的条数
+     * @return {@link Result}
+     */
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 把博文推送到粉丝收件箱，粉丝过多的作者只登记为大V，由粉丝读取时拉取发件箱
+     *
+     * @param message 推送消息
+     */
+    void pushFeed(FeedMessage message);
 }
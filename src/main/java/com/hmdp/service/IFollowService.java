@@ -1,8 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +17,77 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    /**
+     * 关注或取关
+     *
+     * @param followUserId 被关注的用户id
+     * @param isFollow     true:关注 false:取关
+     * @return {@link Result}
+     */
+    Result follow(Long followUserId, Boolean isFollow);
+
+    /**
+     * 当前用户是否关注了指定用户
+     *
+     * @param followUserId 被关注的用户id
+     * @return {@link Result}
+     */
+    Result isFollow(Long followUserId);
+
+    /**
+     * 当前用户和指定用户的共同关注
+     *
+     * @param userId 用户id
+     * @return {@link Result}
+     */
+    Result queryCommonFollows(Long userId);
+
+    /**
+     * 查询用户的关注数和粉丝数
+     *
+     * @param userId 用户id
+     * @return {@link Result}
+     */
+    Result queryFollowCount(Long userId);
+
+    /**
+     * 查询用户关注的人中属于指定集合的用户id
+     *
+     * @param userId 用户id
+     * @param setKey 用户id集合的 key
+     * @return 交集中的用户id
+     */
+    List<Long> queryFolloweeIdsIn(Long userId, String setKey);
+
+    /**
+     * 从数据库重建用户的关注集合和粉丝集合
+     *
+     * @param userId 用户id
+     */
+    void rebuildFollowCache(Long userId);
+
+    /**
+     * 统计粉丝数
+     *
+     * @param userId 用户id
+     * @return 粉丝数
+     */
+    long countFollowers(Long userId);
+
+    /**
+     * 查询用户关注的全部用户id
+     *
+     * @param userId 用户id
+     * @return 关注的用户id
+     */
+    List<Long> queryFolloweeIds(Long userId);
+
+    /**
+     * 按 id 游标分批遍历粉丝
+     *
+     * @param userId    用户id
+     * @param batchSize 每批数量
+     * @param consumer  处理一批粉丝id
+     */
+    void forEachFollowerBatch(Long userId, int batchSize, Consumer<List<Long>> consumer);
 }
@@ -21,4 +21,19 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryById(Long id);
 
+    /**
+     * 更新商户信息，并删除缓存
+     *
+     * @param shop 商户信息
+     * @return {@link Result}
+     */
+    Result update(Shop shop);
+
+    /**
+     * 新增商户信息，并加入布隆过滤器
+     *
+     * @param shop 商户信息
+     * @return {@link Result}
+     */
+    Result saveShop(Shop shop);
 }
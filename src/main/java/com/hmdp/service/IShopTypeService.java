@@ -3,6 +3,8 @@ package com.hmdp.service;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -12,5 +14,10 @@ import com.baomidou.mybatisplus.extension.service.IService;
  * @since 2021-12-22
  */
 public interface IShopTypeService extends IService<ShopType> {
-
+    /**
+     * 查询全部商户类型，优先读取缓存
+     *
+     * @return 按 sort 排序的商户类型
+     */
+    List<ShopType> queryTypeList();
 }
@@ -6,6 +6,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.time.YearMonth;
 
 /**
  * <p>
@@ -35,6 +36,22 @@ public interface IUserService extends IService<User> {
      */
     Result login(LoginFormDTO loginForm, HttpSession session);
 
+    /**
+     * 退出登录
+     *
+     * @param token 当前请求的 token
+     * @return {@link Result}
+     */
+    Result logout(String token);
+
+    /**
+     * 退出所有设备
+     *
+     * @param token 当前请求的 token
+     * @return {@link Result}
+     */
+    Result logoutAll(String token);
+
     /**
      * 签到
      *
@@ -48,4 +65,12 @@ public interface IUserService extends IService<User> {
      * @return {@link Result}
      */
     Result signCount();
+
+    /**
+     * 统计某个月的签到天数
+     *
+     * @param month 月份，历史月份从归档表统计
+     * @return {@link Result}
+     */
+    Result signMonthCount(YearMonth month);
 }
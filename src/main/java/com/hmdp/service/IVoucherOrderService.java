@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -22,4 +24,19 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      */
     Result seckillVoucher(Long voucherId);
 
+    /**
+     * 创建秒杀订单，在同一个事务中插入订单并扣减库存，同一订单重复消费时只会生效一次
+     *
+     * @param order 订单
+     * @return true:创建成功 false:订单已经存在
+     */
+    boolean createSeckillOrder(VoucherOrder order);
+
+    /**
+     * 批量创建秒杀订单，在同一个事务中多行插入订单并按优惠券合并扣减库存，已经存在的订单会被跳过
+     *
+     * @param orders 订单列表
+     */
+    void createSeckillOrders(List<VoucherOrder> orders);
+
 }
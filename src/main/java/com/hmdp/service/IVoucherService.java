@@ -18,4 +18,21 @@ public interface IVoucherService extends IService<Voucher> {
 
     void addSeckillVoucher(Voucher voucher);
 
+    /**
+     * 补充秒杀券库存
+     *
+     * @param voucherId 券id
+     * @param count     补充的数量
+     * @return 是否补充成功
+     */
+    boolean addSeckillStock(Long voucherId, Integer count);
+
+    /**
+     * redis 库存丢失后重新同步秒杀库存，需要在下单消息消费完后执行
+     *
+     * @param voucherId 券id
+     * @return 同步后的库存，券不存在或库存已经存在时返回 -1
+     */
+    long syncSeckillStock(Long voucherId);
+
 }
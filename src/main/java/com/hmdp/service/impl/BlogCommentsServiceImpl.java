@@ -1,10 +1,21 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
+import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -16,5 +27,39 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private BlogHotRanking blogHotRanking;
 
+    @Override
+    @Transactional
+    public Result saveComment(BlogComments comment) {
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        //一级评论
+        if (comment.getParentId() == null) {
+            comment.setParentId(0L);
+        }
+        if (comment.getAnswerId() == null) {
+            comment.setAnswerId(0L);
+        }
+        //更新博文评论数
+        int updated = blogMapper.update(null, new UpdateWrapper<Blog>()
+                .setSql("comments = IFNULL(comments, 0) + 1")
+                .eq("id", comment.getBlogId()));
+        if (updated == 0) {
+            return Result.fail("博文不存在");
+        }
+        save(comment);
+        //事务提交后再更新排名权重，避免回滚后权重多于评论数
+        Long blogId = comment.getBlogId();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                blogHotRanking.onComment(blogId);
+            }
+        });
+        return Result.ok(comment.getId());
+    }
 }
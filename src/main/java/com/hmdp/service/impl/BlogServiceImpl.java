@@ -1,11 +1,52 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.FeedMessage;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
+import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UserProfileLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.config.RabbitConfig.FEED_QUEUE;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_LIKE_COUNT_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_LIKE_DIRTY_KEY;
+import static com.hmdp.constant.RedisKeyConstant.FEED_BIG_AUTHOR_KEY;
+import static com.hmdp.constant.RedisKeyConstant.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +55,300 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
+    /**
+     * 点赞列表展示的用户数
+     */
+    private static final int TOP_LIKERS = 5;
+    /**
+     * 推送收件箱时每批的粉丝数
+     */
+    private static final int PUSH_BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("lua/blog_like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 粉丝数达到该值的作者只写发件箱，不推送到粉丝收件箱
+     */
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private Long pushThreshold;
+
+    /**
+     * 收件箱和发件箱保留的最大条数
+     */
+    @Value("${hmdp.feed.max-size:1000}")
+    private Long feedMaxSize;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private UserProfileLoader userProfileLoader;
+    @Resource
+    private BlogHotRanking blogHotRanking;
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        List<Blog> records;
+        if (blogHotRanking.isReady()) {
+            // 从排名中读取当前页的博文id，再批量查询博文
+            records = queryByIdsInOrder(blogHotRanking.queryIds(current, SystemConstants.MAX_PAGE_SIZE));
+        } else {
+            // 排名不可用时按点赞数查询
+            Page<Blog> page = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            // 获取当前页数据
+            records = page.getRecords();
+        }
+        // 批量查询用户
+        fillAuthor(records);
+        fillLikes(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 保存探店博文
+        save(blog);
+        blogHotRanking.onPublish(blog.getId(),
+                blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime());
+        // 写入发件箱，推送到粉丝收件箱交给消息队列异步执行
+        publishFeed(blog);
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 在redis中切换点赞状态并修改点赞数，由定时任务批量落库
+        Long result = like(id, userId);
+        if (result != null && result == 0) {
+            // 第一次点赞，从数据库初始化点赞数
+            Blog blog = getById(id);
+            if (blog == null) {
+                return Result.fail("博文不存在");
+            }
+            stringRedisTemplate.opsForHash().putIfAbsent(BLOG_LIKE_COUNT_KEY, id.toString(),
+                    String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked()));
+            result = like(id, userId);
+        }
+        if (result != null && result != 0) {
+            blogHotRanking.onLike(id, result.intValue());
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        Blog blog = getById(id);
+        if (blog == null) {
+            return Result.fail("博文不存在");
+        }
+        List<Blog> blogs = Collections.singletonList(blog);
+        fillAuthor(blogs);
+        fillLikes(blogs);
+        return Result.ok(blog);
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id) {
+        // 最早点赞的用户
+        Set<String> userIds = stringRedisTemplate.opsForZSet()
+                .range(RedisConstants.BLOG_LIKED_KEY + id, 0, TOP_LIKERS - 1);
+        if (userIds == null || userIds.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = userIds.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userProfileLoader.loadAll(ids);
+        return Result.ok(ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        Long userId = UserHolder.getUser().getId();
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 读取自己的收件箱，以及关注的大V作者的发件箱
+        List<String> sources = new ArrayList<>();
+        sources.add(FEED_KEY + userId);
+        queryFollowedBigAuthors(userId).forEach(authorId -> sources.add(String.format(FEED_OUTBOX_KEY, authorId)));
+
+        // 合并各来源，同一篇博文只保留一次
+        Map<String, Double> merged = new HashMap<>();
+        for (String source : sources) {
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(source, 0, max, 0, offset + size);
+            if (tuples != null) {
+                tuples.forEach(tuple -> merged.merge(tuple.getValue(), tuple.getScore(), Math::max));
+            }
+        }
+        // 按时间倒序，时间相同时按id倒序，保证多次请求的顺序一致
+        List<Map.Entry<String, Double>> entries = merged.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue()
+                        .thenComparing(Map.Entry.comparingByKey())
+                        .reversed())
+                .skip(offset)
+                .limit(size)
+                .collect(Collectors.toList());
+
+        ScrollResult result = new ScrollResult();
+        if (entries.isEmpty()) {
+            result.setList(Collections.emptyList());
+            result.setMinTime(max);
+            result.setOffset(offset);
+            return Result.ok(result);
+        }
+        // 计算下一页的时间戳和偏移量
+        long minTime = entries.get(entries.size() - 1).getValue().longValue();
+        int nextOffset = (int) entries.stream().filter(entry -> entry.getValue().longValue() == minTime).count();
+        if (minTime == max) {
+            nextOffset += offset;
+        }
+
+        List<Blog> blogs = queryByIdsInOrder(entries.stream()
+                .map(entry -> Long.valueOf(entry.getKey()))
+                .collect(Collectors.toList()));
+        fillAuthor(blogs);
+        fillLikes(blogs);
+        result.setList(blogs);
+        result.setMinTime(minTime);
+        result.setOffset(nextOffset);
+        return Result.ok(result);
+    }
+
+    /**
+     * 写入作者发件箱，并发送推送消息。发件箱只有一次写入，粉丝收件箱的推送在消费者中执行
+     */
+    private void publishFeed(Blog blog) {
+        Long authorId = blog.getUserId();
+        long time = System.currentTimeMillis();
+        writeFeed(Collections.singletonList(String.format(FEED_OUTBOX_KEY, authorId)), blog.getId().toString(), time);
+        try {
+            rabbitTemplate.convertAndSend("", FEED_QUEUE, new FeedMessage(blog.getId(), authorId, time));
+        } catch (AmqpException e) {
+            //博文已经保存并写入发件箱，只影响粉丝收件箱，飞书群消息警告，人工补推
+            log.error("发送博文推送消息失败，博文id：{}，作者id：{}", blog.getId(), authorId, e);
+        }
+    }
+
+    /**
+     * 推送到粉丝收件箱。粉丝过多的作者只写发件箱，由粉丝读取时拉取，发布时不产生大量写入
+     */
+    @Override
+    public void pushFeed(FeedMessage message) {
+        Long authorId = message.getAuthorId();
+        String blogId = message.getBlogId().toString();
+        long time = message.getTime();
+
+        if (followService.countFollowers(authorId) >= pushThreshold) {
+            stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHOR_KEY, authorId.toString());
+            return;
+        }
+        stringRedisTemplate.opsForSet().remove(FEED_BIG_AUTHOR_KEY, authorId.toString());
+        // 分批通过管道推送
+        followService.forEachFollowerBatch(authorId, PUSH_BATCH_SIZE, followerIds -> writeFeed(
+                followerIds.stream().map(followerId -> FEED_KEY + followerId).collect(Collectors.toList()),
+                blogId, time));
+    }
+
+    /**
+     * 通过管道把博文写入多个收件箱或发件箱，并截断到最大条数
+     */
+    private void writeFeed(List<String> keys, String blogId, long time) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String key : keys) {
+                stringConnection.zAdd(key, time, blogId);
+                stringConnection.zRemRange(key, 0, -feedMaxSize - 1);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 当前用户关注的大V作者
+     */
+    private List<Long> queryFollowedBigAuthors(Long userId) {
+        //关注集合和大V集合在 redis 中取交集
+        return followService.queryFolloweeIdsIn(userId, FEED_BIG_AUTHOR_KEY);
+    }
+
+    private Long like(Long id, Long userId) {
+        return stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(RedisConstants.BLOG_LIKED_KEY + id, BLOG_LIKE_COUNT_KEY, BLOG_LIKE_DIRTY_KEY),
+                id.toString(), userId.toString(), String.valueOf(System.currentTimeMillis()));
+    }
+
+    /**
+     * 用redis中的点赞数覆盖尚未落库的点赞数，并填充当前用户是否点赞，一次管道往返完成
+     */
+    private void fillLikes(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        UserDTO user = UserHolder.getUser();
+        String[] fields = blogs.stream().map(blog -> blog.getId().toString()).toArray(String[]::new);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.hMGet(BLOG_LIKE_COUNT_KEY, fields);
+            if (user != null) {
+                blogs.forEach(blog -> stringConnection.zScore(RedisConstants.BLOG_LIKED_KEY + blog.getId(),
+                        user.getId().toString()));
+            }
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        List<Object> counts = (List<Object>) results.get(0);
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            Object count = counts == null ? null : counts.get(i);
+            if (count != null) {
+                blog.setLiked(Integer.parseInt(count.toString()));
+            }
+            blog.setIsLike(user != null && results.get(i + 1) != null);
+        }
+    }
+
+    /**
+     * 批量查询博文，按 ids 的顺序返回，已删除的博文跳过
+     */
+    private List<Blog> queryByIdsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Blog> blogs = listByIds(ids).stream()
+                .collect(Collectors.toMap(Blog::getId, Function.identity()));
+        return ids.stream()
+                .map(blogs::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
 
+    /**
+     * 批量填充作者昵称和头像
+     */
+    private void fillAuthor(List<Blog> blogs) {
+        userProfileLoader.fill(blogs, Blog::getUserId, (blog, user) -> {
+            blog.setName(user.getNickName());
+            blog.setIcon(user.getIcon());
+        });
+    }
 }
@@ -1,20 +1,450 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.support.SFunction;
+import com.hmdp.dto.FollowCount;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UserProfileLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.hmdp.constant.RedisKeyConstant.FOLLOWERS_KEY;
+import static com.hmdp.constant.RedisKeyConstant.FOLLOWS_KEY;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 关注关系以 tb_follow 为准，redis 中为每个用户维护关注集合和粉丝集合，是否关注、共同关注和关注数都从集合读取。
+ * 集合不存在时从数据库加载，多个用户同时冷启动时一次查询、一次管道批量加载；关注和取关更新已经加载和正在加载的集合。
+ * 其他请求正在加载或加载失败时，本次直接读数据库
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
+    /**
+     * 集合中的占位成员，用户id从 1 开始，占位成员不会和真实用户冲突，没有关注的用户也有一个已加载的集合
+     */
+    private static final String SENTINEL = "0";
+    /**
+     * 从数据库加载粉丝集合时每批的数量
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+    /**
+     * 加载中集合的过期时间，单位：秒，加载请求异常退出后其他请求可以重新加载
+     */
+    private static final long LOAD_TIMEOUT = 300;
+    /**
+     * 其他请求正在加载时的等待次数和间隔，单位：毫秒，等不到时读数据库
+     */
+    private static final int LOAD_WAIT_RETRY = 10;
+    private static final long LOAD_WAIT_INTERVAL = 50L;
+    private static final long LOAD_STARTED = 1L;
+    private static final long LOAD_RUNNING = 2L;
+
+
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT;
+    /**
+     * 加载脚本分三步在管道中执行，使用脚本原文，占位成员和 {@link #SENTINEL} 一致
+     */
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT;
+
+    static {
+        UPDATE_SCRIPT = new DefaultRedisScript<>();
+        UPDATE_SCRIPT.setLocation(new ClassPathResource("lua/follow_update.lua"));
+        UPDATE_SCRIPT.setResultType(Long.class);
+        LOAD_SCRIPT = new DefaultRedisScript<>();
+        LOAD_SCRIPT.setLocation(new ClassPathResource("lua/follow_load.lua"));
+        LOAD_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 关注集合和粉丝集合的过期时间，单位：天
+     */
+    @Value("${hmdp.follow.cache-ttl:7}")
+    private Long cacheTtl;
+
+    /**
+     * 粉丝数达到该值时不加载粉丝集合，与只写发件箱的大V阈值一致
+     */
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private Long followersCacheLimit;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private UserProfileLoader userProfileLoader;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        if (Boolean.TRUE.equals(isFollow)) {
+            try {
+                save(new Follow().setUserId(userId).setFollowUserId(followUserId));
+            } catch (DuplicateKeyException e) {
+                //已经关注过，唯一索引保证幂等
+            }
+        } else {
+            remove(new LambdaQueryWrapper<Follow>()
+                    .eq(Follow::getUserId, userId)
+                    .eq(Follow::getFollowUserId, followUserId));
+        }
+        //数据库写入成功后再更新集合，未加载的集合不创建，正在加载的集合同时记录变化，避免被加载时的旧快照覆盖
+        String followsKey = followsKey(userId);
+        String followersKey = followersKey(followUserId);
+        stringRedisTemplate.execute(UPDATE_SCRIPT,
+                Arrays.asList(followsKey, loadingKey(followsKey), changedKey(followsKey),
+                        followersKey, loadingKey(followersKey), changedKey(followersKey)),
+                Boolean.TRUE.equals(isFollow) ? "1" : "0", followUserId.toString(), userId.toString());
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        String key = followsKey(userId);
+        //集合已加载时一次往返得到结果
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.exists(key);
+            stringConnection.sIsMember(key, followUserId.toString());
+            return null;
+        });
+        if (Boolean.TRUE.equals(results.get(0))) {
+            return Result.ok(Boolean.TRUE.equals(results.get(1)));
+        }
+        if (!loadFollows(Collections.singletonList(userId)).isEmpty()) {
+            Integer count = lambdaQuery()
+                    .eq(Follow::getUserId, userId)
+                    .eq(Follow::getFollowUserId, followUserId)
+                    .count();
+            return Result.ok(count != null && count > 0);
+        }
+        return Result.ok(Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, followUserId.toString())));
+    }
+
+    @Override
+    public Result queryCommonFollows(Long userId) {
+        Long currentUserId = UserHolder.getUser().getId();
+        //两个用户的集合一起加载
+        List<Long> ids;
+        if (loadFollows(Arrays.asList(currentUserId, userId)).isEmpty()) {
+            ids = toIds(stringRedisTemplate.opsForSet().intersect(followsKey(currentUserId), followsKey(userId)));
+        } else {
+            Set<Long> followeeIds = new HashSet<>(queryFolloweeIdsFromDb(userId));
+            ids = queryFolloweeIdsFromDb(currentUserId).stream()
+                    .filter(followeeIds::contains)
+                    .collect(Collectors.toList());
+        }
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        Map<Long, UserDTO> users = userProfileLoader.loadAll(ids);
+        List<UserDTO> result = ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryFollowCount(Long userId) {
+        FollowCount count = new FollowCount();
+        if (loadFollows(Collections.singletonList(userId)).isEmpty()) {
+            count.setFollows(sizeOf(stringRedisTemplate.opsForSet().size(followsKey(userId))));
+        } else {
+            count.setFollows(countFromDb(Follow::getUserId, userId));
+        }
+        count.setFollowers(countFollowers(userId));
+        return Result.ok(count);
+    }
+
+    /**
+     * 粉丝集合已加载时读取集合大小，否则走 idx_follow_user 索引计数，粉丝数低于阈值时才加载粉丝集合，
+     * 大V的粉丝不整体写入 redis
+     */
+    @Override
+    public long countFollowers(Long userId) {
+        Long size = stringRedisTemplate.opsForSet().size(followersKey(userId));
+        if (size != null && size > 0) {
+            return sizeOf(size);
+        }
+        long count = countFromDb(Follow::getFollowUserId, userId);
+        if (count < followersCacheLimit) {
+            loadFollowers(userId);
+        }
+        return count;
+    }
+
+    @Override
+    public List<Long> queryFolloweeIds(Long userId) {
+        if (!loadFollows(Collections.singletonList(userId)).isEmpty()) {
+            return queryFolloweeIdsFromDb(userId);
+        }
+        return toIds(stringRedisTemplate.opsForSet().members(followsKey(userId)));
+    }
+
+    @Override
+    public List<Long> queryFolloweeIdsIn(Long userId, String setKey) {
+        if (!loadFollows(Collections.singletonList(userId)).isEmpty()) {
+            Set<String> members = stringRedisTemplate.opsForSet().members(setKey);
+            if (members == null || members.isEmpty()) {
+                return Collections.emptyList();
+            }
+            return queryFolloweeIdsFromDb(userId).stream()
+                    .filter(id -> members.contains(id.toString()))
+                    .collect(Collectors.toList());
+        }
+        return toIds(stringRedisTemplate.opsForSet().intersect(followsKey(userId), setKey));
+    }
+
+    @Override
+    public void rebuildFollowCache(Long userId) {
+        stringRedisTemplate.delete(Arrays.asList(followsKey(userId), followersKey(userId)));
+        loadFollows(Collections.singletonList(userId));
+        countFollowers(userId);
+    }
+
+    @Override
+    public void forEachFollowerBatch(Long userId, int batchSize, Consumer<List<Long>> consumer) {
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = lambdaQuery()
+                    .select(Follow::getId, Follow::getUserId)
+                    .eq(Follow::getFollowUserId, userId)
+                    .gt(Follow::getId, lastId)
+                    .orderByAsc(Follow::getId)
+                    .last("limit " + batchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                return;
+            }
+            consumer.accept(follows.stream().map(Follow::getUserId).collect(Collectors.toList()));
+            if (follows.size() < batchSize) {
+                return;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 加载尚未加载的关注集合，一次管道开始加载，一次查询读取全部冷用户的关注，再用管道写入并完成加载
+     * <p>
+     * 开始加载在读取数据库之前，之后的关注和取关同时写入加载中集合并记录变化的成员，
+     * 快照中这些成员不再写入，完成时 RENAME 为正式集合，加载期间的变化不会丢失
+     *
+     * @return 没有加载成功的用户id，调用方从数据库读取
+     */
+    private Set<Long> loadFollows(Collection<Long> userIds) {
+        List<Long> ids = userIds.stream().distinct().collect(Collectors.toList());
+        List<Object> begins = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            ids.forEach(id -> evalLoad(stringConnection, followsKey(id), "begin", String.valueOf(LOAD_TIMEOUT)));
+            return null;
+        });
+        List<Long> startedIds = new ArrayList<>();
+        Set<Long> failedIds = new HashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Object begin = begins.get(i);
+            if (Objects.equals(begin, LOAD_STARTED)) {
+                startedIds.add(ids.get(i));
+            } else if (Objects.equals(begin, LOAD_RUNNING) && !awaitLoaded(followsKey(ids.get(i)))) {
+                failedIds.add(ids.get(i));
+            }
+        }
+        if (startedIds.isEmpty()) {
+            return failedIds;
+        }
+
+        try {
+            Map<Long, List<String>> followees = lambdaQuery()
+                    .select(Follow::getUserId, Follow::getFollowUserId)
+                    .in(Follow::getUserId, startedIds)
+                    .list()
+                    .stream()
+                    .collect(Collectors.groupingBy(Follow::getUserId,
+                            Collectors.mapping(follow -> follow.getFollowUserId().toString(), Collectors.toList())));
+            String ttl = String.valueOf(TimeUnit.DAYS.toSeconds(cacheTtl));
+            List<Object> finishes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Long id : startedIds) {
+                    String key = followsKey(id);
+                    List<String> members = followees.getOrDefault(id, Collections.emptyList());
+                    for (int from = 0; from < members.size(); from += LOAD_BATCH_SIZE) {
+                        List<String> batch = members.subList(from, Math.min(from + LOAD_BATCH_SIZE, members.size()));
+                        evalLoad(stringConnection, key, "append", batch.toArray(new String[0]));
+                    }
+                    evalLoad(stringConnection, key, "finish", ttl);
+                }
+                return null;
+            });
+            //每个用户最后一条结果是 finish，失败时集合可能已经被其他请求加载
+            int index = -1;
+            for (Long id : startedIds) {
+                int size = followees.getOrDefault(id, Collections.emptyList()).size();
+                index += (size + LOAD_BATCH_SIZE - 1) / LOAD_BATCH_SIZE + 1;
+                if (!Objects.equals(finishes.get(index), LOAD_STARTED)
+                        && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(followsKey(id)))) {
+                    failedIds.add(id);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("加载关注集合失败，userIds={}", startedIds, e);
+            stringRedisTemplate.delete(startedIds.stream()
+                    .map(id -> loadingKey(followsKey(id)))
+                    .collect(Collectors.toList()));
+            failedIds.addAll(startedIds);
+        }
+        return failedIds;
+    }
+
+    /**
+     * 加载尚未加载的粉丝集合，粉丝数可能很多，按批从数据库读取后写入加载中集合
+     *
+     * @return 集合是否已经加载，false 时调用方从数据库读取
+     */
+    private boolean loadFollowers(Long userId) {
+        String key = followersKey(userId);
+        Long begin = executeLoad(key, "begin", String.valueOf(LOAD_TIMEOUT));
+        if (!Objects.equals(begin, LOAD_STARTED)) {
+            return !Objects.equals(begin, LOAD_RUNNING) || awaitLoaded(key);
+        }
+        try {
+            forEachFollowerBatch(userId, LOAD_BATCH_SIZE, followerIds -> executeLoad(key, "append",
+                    followerIds.stream().map(String::valueOf).toArray(String[]::new)));
+        } catch (RuntimeException e) {
+            log.error("加载粉丝集合失败，userId={}", userId, e);
+            stringRedisTemplate.delete(loadingKey(key));
+            return false;
+        }
+        Long finish = executeLoad(key, "finish", String.valueOf(TimeUnit.DAYS.toSeconds(cacheTtl)));
+        return Objects.equals(finish, LOAD_STARTED) || Boolean.TRUE.equals(stringRedisTemplate.hasKey(key));
+    }
+
+    /**
+     * 等待其他请求加载完成
+     */
+    private boolean awaitLoaded(String key) {
+        for (int i = 0; i < LOAD_WAIT_RETRY; i++) {
+            try {
+                Thread.sleep(LOAD_WAIT_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Long executeLoad(String key, String step, String... args) {
+        List<String> argv = new ArrayList<>();
+        argv.add(step);
+        argv.addAll(Arrays.asList(args));
+        return stringRedisTemplate.execute(LOAD_SCRIPT,
+                Arrays.asList(key, loadingKey(key), changedKey(key)), argv.toArray());
+    }
+
+    private void evalLoad(StringRedisConnection connection, String key, String step, String... args) {
+        String[] keysAndArgs = new String[args.length + 4];
+        keysAndArgs[0] = key;
+        keysAndArgs[1] = loadingKey(key);
+        keysAndArgs[2] = changedKey(key);
+        keysAndArgs[3] = step;
+        System.arraycopy(args, 0, keysAndArgs, 4, args.length);
+        connection.eval(LOAD_SCRIPT.getScriptAsString(), ReturnType.INTEGER, 3, keysAndArgs);
+    }
+
+    private List<Long> queryFolloweeIdsFromDb(Long userId) {
+        return lambdaQuery()
+                .select(Follow::getFollowUserId)
+                .eq(Follow::getUserId, userId)
+                .list()
+                .stream()
+                .map(Follow::getFollowUserId)
+                .collect(Collectors.toList());
+    }
+
+    private long countFromDb(SFunction<Follow, Long> column, Long userId) {
+        Integer count = lambdaQuery().eq(column, userId).count();
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 集合成员转换为用户id，去掉占位成员
+     */
+    private List<Long> toIds(Set<String> members) {
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return members.stream()
+                .filter(member -> !SENTINEL.equals(member))
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 集合大小去掉占位成员
+     */
+    private long sizeOf(Object size) {
+        return size == null ? 0 : Math.max(((Number) size).longValue() - 1, 0);
+    }
+
+    private String followsKey(Long userId) {
+        return String.format(FOLLOWS_KEY, userId);
+    }
+
+    private String followersKey(Long userId) {
+        return String.format(FOLLOWERS_KEY, userId);
+    }
+
+    /**
+     * 加载中集合，同一个集合同时只有一个请求加载，关注和取关也会写入
+     */
+    private String loadingKey(String key) {
+        return key + ":loading";
+    }
 
+    /**
+     * 加载期间关注或取关过的成员
+     */
+    private String changedKey(String key) {
+        return key + ":changed";
+    }
 }
@@ -6,7 +6,11 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.Objects;
@@ -27,18 +31,52 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private IdBloomFilter idBloomFilter;
 
     @Override
     public Result queryById(Long id) {
-        //解决缓存击穿的问题(逻辑过期)
-        //Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        //布隆过滤器判断不存在的店铺直接返回，不访问缓存和数据库
+        if (!idBloomFilter.mightContainShop(id)) {
+            return Result.fail("店铺不存在");
+        }
 
-        //解决缓存击穿的问题(缓存空值)
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        //解决缓存击穿的问题(逻辑过期)，热点店铺在逻辑过期前由重建线程池提前刷新
+        Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (Objects.isNull(shop)) {
             return Result.fail("店铺不存在");
         }
 
         return Result.ok(shop);
     }
+
+    @Override
+    @Transactional
+    public Result update(Shop shop) {
+        Long id = shop.getId();
+        if (id == null) {
+            return Result.fail("店铺id不能为空");
+        }
+
+        //更新数据库
+        updateById(shop);
+        //事务提交后再删除缓存，并通知各节点清除本地缓存，避免提交前被并发读取重新写入旧数据
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                cacheClient.delete(CACHE_SHOP_KEY + id);
+            }
+        });
+        return Result.ok();
+    }
+
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        //写入数据库
+        save(shop);
+        //加入布隆过滤器
+        idBloomFilter.addShop(shop.getId());
+        return Result.ok(shop.getId());
+    }
 }
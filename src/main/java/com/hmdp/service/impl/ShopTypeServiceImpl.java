@@ -1,11 +1,21 @@
 package com.hmdp.service.impl;
 
+import com.alibaba.fastjson.JSON;
+import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +27,18 @@ import org.springframework.stereotype.Service;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public List<ShopType> queryTypeList() {
+        String json = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+        if (StringUtils.isNotBlank(json)) {
+            return JSON.parseArray(json, ShopType.class);
+        }
+
+        List<ShopType> typeList = query().orderByAsc("sort").list();
+        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSON.toJSONString(typeList), CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        return typeList;
+    }
 }
@@ -5,34 +5,44 @@ import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Sign;
 import com.hmdp.entity.User;
+import com.hmdp.mapper.SignMapper;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.LoginSessionCache;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignBitmaps;
+import com.hmdp.utils.SignedTokenService;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
-import java.math.BigInteger;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static com.hmdp.constant.RedisKeyConstant.LOGIN_USER_TOKENS_KEY;
 import static com.hmdp.utils.RedisConstants.*;
-import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 
 /**
@@ -46,8 +56,25 @@ import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Service
 @Slf4j
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> LOGOUT_ALL_SCRIPT;
+
+    static {
+        LOGOUT_ALL_SCRIPT = new DefaultRedisScript<>();
+        LOGOUT_ALL_SCRIPT.setLocation(new ClassPathResource("lua/logout_all.lua"));
+        LOGOUT_ALL_SCRIPT.setResultType(List.class);
+    }
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IdBloomFilter idBloomFilter;
+    @Resource
+    private SignedTokenService signedTokenService;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignMapper signMapper;
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -95,33 +122,68 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         }
         /*//保存用户信息到session
         session.setAttribute("user", BeanUtil.copyProperties(user, UserDTO.class));*/
+        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+        if (signedTokenService.isEnabled()) {
+            //签发无状态令牌，redis中只记录token索引
+            String token = signedTokenService.issue(userDTO);
+            saveToken(userDTO.getId(), token, null);
+            return Result.ok(token);
+        }
         //生成token
         String token = UUID.randomUUID().toString(true);
         //userDTO转map
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         Map<String, Object> map = BeanUtil.beanToMap(userDTO, new HashMap<>()
                 , CopyOptions.create().setIgnoreNullValue(true)
                         .setFieldValueEditor(
                                 (name, value) -> value.toString()
                         ));
-        //保存用户信息到redis
-        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + token, map);
-        //设置过期时间
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        //保存用户信息到redis并设置过期时间
+        saveToken(userDTO.getId(), token, map.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().toString())));
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        Long userId = UserHolder.getUser().getId();
+        revokeToken(token);
+        stringRedisTemplate.opsForZSet().remove(String.format(LOGIN_USER_TOKENS_KEY, userId), token);
+        return Result.ok();
+    }
+
+    @Override
+    public Result logoutAll(String token) {
+        Long userId = UserHolder.getUser().getId();
+        //原子地删除索引中的全部token，避免与并发登录交错
+        @SuppressWarnings("unchecked")
+        List<String> tokens = stringRedisTemplate.execute(LOGOUT_ALL_SCRIPT,
+                Collections.singletonList(String.format(LOGIN_USER_TOKENS_KEY, userId)), LOGIN_USER_KEY);
+        if (tokens != null) {
+            for (String indexed : tokens) {
+                //redis模式的hash已由脚本删除
+                if (SignedTokenService.isSignedToken(indexed)) {
+                    signedTokenService.revoke(indexed);
+                }
+                loginSessionCache.publishInvalidate(indexed);
+            }
+        }
+        //当前token可能是建立索引之前登录的
+        if (tokens == null || !tokens.contains(token)) {
+            revokeToken(token);
+        }
+        return Result.ok();
+    }
+
     @Override
     public Result sign() {
         //获取当前登陆用户
         Long id = UserHolder.getUser().getId();
         //获取日期
-        LocalDateTime now = LocalDateTime.now();
+        LocalDate today = LocalDate.now();
         //拼接key
-        String yyyyMM = now.format(DateTimeFormatter.ofPattern("yyyy:MM:"));
-        String key = USER_SIGN_KEY + yyyyMM + id;
+        String key = SignBitmaps.key(id, YearMonth.from(today));
         //获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();
+        int dayOfMonth = today.getDayOfMonth();
         //写了redis
         stringRedisTemplate.opsForValue().setBit(key, dayOfMonth - 1, true);
         return Result.ok();
@@ -131,91 +193,103 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     public Result signCount() {
         //获取当前登陆用户
         Long id = UserHolder.getUser().getId();
-        //获取日期
-        LocalDateTime now = LocalDateTime.now();
-        //拼接key
-        String yyyyMM = now.format(DateTimeFormatter.ofPattern("yyyy:MM:"));
-        String key = USER_SIGN_KEY + yyyyMM + id;
-        //获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();
-
-        //转二进制字符串
-        String binaryString = getBitsBefore(key, dayOfMonth);
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        int days = today.getDayOfMonth();
 
-        //计算连续签到天数
+        //计算连续签到天数，本月从第一天起全部签到时继续统计上个月
         int count = 0;
-        for (int i = binaryString.length() - 1; i >= 0; i--) {
-            if (binaryString.charAt(i) == '1') {
-                count++;
-            } else {
+        while (true) {
+            int streak = SignBitmaps.trailingOnes(getSignBits(id, month, days));
+            count += streak;
+            if (streak < days) {
                 break;
             }
+            month = month.minusMonths(1);
+            days = month.lengthOfMonth();
         }
         //返回
         return Result.ok(count);
     }
 
-    /**
-     * 老师通过复杂一点方法实现的签到天数统计
-     */
-    public Result signCountCopy() {
+    @Override
+    public Result signMonthCount(YearMonth month) {
         //获取当前登陆用户
         Long id = UserHolder.getUser().getId();
-        //获取日期
-        LocalDateTime now = LocalDateTime.now();
-        //拼接key
-        String yyyyMM = now.format(DateTimeFormatter.ofPattern("yyyy:MM:"));
-        String key = USER_SIGN_KEY + yyyyMM + id;
-        //获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();
-        //获取截至本月今天的所有签到记录
-        List<Long> result = stringRedisTemplate.opsForValue().bitField(key
+        byte[] key = SignBitmaps.key(id, month).getBytes(StandardCharsets.UTF_8);
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key));
+        if ((count == null || count == 0) && month.isBefore(YearMonth.now())) {
+            //历史月份的位图可能已经归档
+            count = signMapper.selectCount(archiveQuery(id, month)).longValue();
+        }
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    /**
+     * 读取指定月份前 days 天的签到记录，第 days 天位于最低位
+     */
+    private long getSignBits(Long userId, YearMonth month, int days) {
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(SignBitmaps.key(userId, month)
                 , BitFieldSubCommands
                         .create()
                         .get(BitFieldSubCommands.BitFieldType
-                                .unsigned(dayOfMonth))
+                                .unsigned(days))
                         .valueAt(0)
         );
-        if (result == null || result.isEmpty()) {
-            return Result.ok(0);
+        long bits = result == null || result.isEmpty() || result.get(0) == null ? 0 : result.get(0);
+        if (bits != 0 || !month.isBefore(YearMonth.now())) {
+            return bits;
         }
-        Long num = result.get(0);
-        if (num == null || num == 0) {
-            return Result.ok(0);
-        }
-        //转二进制字符串
-        String binaryString = Long.toBinaryString(num);
-        //计算连续签到天数
-        int count = 0;
-        for (int i = binaryString.length() - 1; i >= 0; i--) {
-            if (binaryString.charAt(i) == '1') {
-                count++;
-            } else {
-                break;
-            }
-        }
-        //返回
-        return Result.ok(count);
+        //历史月份的位图可能已经归档，从归档表还原
+        List<Integer> signedDays = signMapper.selectList(archiveQuery(userId, month)
+                        .select(Sign::getDate)
+                        .le(Sign::getDate, month.atDay(days)))
+                .stream()
+                .map(sign -> sign.getDate().getDayOfMonth())
+                .collect(Collectors.toList());
+        return SignBitmaps.bitsOf(signedDays, days);
+    }
+
+    private LambdaQueryWrapper<Sign> archiveQuery(Long userId, YearMonth month) {
+        return new LambdaQueryWrapper<Sign>()
+                .eq(Sign::getUserId, userId)
+                .eq(Sign::getYear, month.getYear())
+                .eq(Sign::getMonth, month.getMonthValue());
     }
 
     /**
-     * 获取指定 key 的二进制字符串
+     * 保存登录token并记录到用户的token索引，一次往返完成，避免只写入hash而没有设置过期时间
+     *
+     * @param userMap 用户信息，无状态令牌为 null
      */
-    public String getBitsBefore(String key, int index) {
-        ValueOperations<String, String> ops = this.stringRedisTemplate.opsForValue();
-        String value = ops.get(key);
-        if (StringUtils.isBlank(value)) {
-            return "";
-        }
-
-        //字符串转二进制字符串
-        String binaryString = new BigInteger(value.getBytes()).toString(2);
+    private void saveToken(Long userId, String token, Map<String, String> userMap) {
+        long ttl = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        long now = System.currentTimeMillis();
+        String indexKey = String.format(LOGIN_USER_TOKENS_KEY, userId);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            if (userMap != null) {
+                stringConnection.hMSet(LOGIN_USER_KEY + token, userMap);
+                stringConnection.expire(LOGIN_USER_KEY + token, ttl);
+            }
+            //顺便清理索引中已过期的token，续期时会同步刷新索引中的过期时间，分数小于当前时间的token已经失效
+            stringConnection.zRemRangeByScore(indexKey, 0, now);
+            stringConnection.zAdd(indexKey, now + TimeUnit.SECONDS.toMillis(ttl), token);
+            stringConnection.expire(indexKey, ttl);
+            return null;
+        });
+    }
 
-        if(index > 0 && index < binaryString.length()) {
-            return binaryString.substring(0, index);
+    /**
+     * 使token失效，并通知各节点清除本地缓存
+     */
+    private void revokeToken(String token) {
+        if (SignedTokenService.isSignedToken(token)) {
+            signedTokenService.revoke(token);
         } else {
-            return binaryString;
+            stringRedisTemplate.delete(LOGIN_USER_KEY + token);
         }
+        loginSessionCache.publishInvalidate(token);
     }
 
     private User createUserWithPhone(String phone) {
@@ -224,6 +298,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         //生成随机昵称
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         baseMapper.insert(user);
+        idBloomFilter.addUser(user.getId());
         return user;
     }
 }
\ No newline at end of file
@@ -1,32 +1,49 @@
 package com.hmdp.service.impl;
 
-import com.alibaba.fastjson.JSON;
-import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.google.common.collect.Maps;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillMessage;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.IdWorker;
 import com.hmdp.utils.RedissonDistributedLocker;
+import com.hmdp.utils.SeckillLocalCache;
+import com.hmdp.utils.SeckillMessageSender;
+import com.hmdp.utils.SeckillScriptExecutor;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.constant.CommonConstant.LOCK_WAIT_TIME;
 import static com.hmdp.constant.CommonConstant.MAX_LEASE_TIME;
-import static com.hmdp.constant.RedisKeyConstant.SEC_KILL_KEY;
-import static com.hmdp.constant.RedisKeyConstant.VOUCHER_KEY;
+import static com.hmdp.constant.CommonConstant.ORDER_DONE_TTL;
+import static com.hmdp.constant.CommonConstant.VOUCHER_CACHE_TTL;
+import static com.hmdp.constant.RedisKeyConstant.SECKILL_ORDER_DONE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
 
 /**
  * <p>
@@ -45,158 +62,248 @@ public class VoucherOrderServiceImpl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdWorker idWorker;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private RedissonDistributedLocker locker;
     @Resource
-    private RabbitTemplate rabbitTemplate;
+    private SeckillMessageSender seckillMessageSender;
+    @Resource
+    private SeckillScriptExecutor seckillScriptExecutor;
+    @Resource
+    private SeckillLocalCache seckillLocalCache;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private IdBloomFilter idBloomFilter;
 
     @Override
     public Result seckillVoucher(Long voucherId) {
         UserDTO user = UserHolder.getUser();
         Long userId = user.getId();
-        String lockKey = String.format(SEC_KILL_KEY, voucherId);
 
-        try {
-            boolean getLock = locker.tryLock(lockKey, LOCK_WAIT_TIME, MAX_LEASE_TIME);
-            if (!getLock) {
-                //获取锁失败
-                return Result.fail("活动火爆，请刷新重试！");
-            }
-
-            //获取优惠券
-            SeckillVoucher voucher = getVoucher(voucherId);
+        //本地已标记售罄，无需访问 redis
+        if (seckillLocalCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
 
-            if (!isOnePersonOneOrderBySet(voucherId)) {
-                //不是一人一单
-                return Result.fail("活动火爆，请刷新重试！");
+        //获取优惠券，优先读取本地缓存
+        SeckillVoucher voucher = seckillLocalCache.getVoucher(voucherId);
+        if (voucher == null) {
+            //布隆过滤器判断不存在的优惠券直接返回，不访问缓存和数据库
+            if (!idBloomFilter.mightContainVoucher(voucherId)) {
+                return Result.fail("优惠券不存在！");
             }
-
-            //判断秒杀是否开始
-            if (!isSeckillStarted(voucher)) {
-                //尚未开始
-                return Result.fail("秒杀尚未开始！");
+            voucher = getVoucher(voucherId);
+            if (voucher == null) {
+                return Result.fail("优惠券不存在！");
             }
+            seckillLocalCache.putVoucher(voucher);
+        }
 
-            //判断秒杀是否已经结束
-            if (isSeckillEnded(voucher)) {
-                //已经结束
-                return Result.fail("秒杀已经结束！");
-            }
+        //本地判断时间窗口，不在窗口内的请求无需访问 redis
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
+            return Result.fail("秒杀尚未开始！");
+        }
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("秒杀已经结束！");
+        }
 
-            //判断库存是否充足
-            if (!isStockEnough(voucher)) {
-                //库存不足
-                return Result.fail("库存不足！");
-            }
+        //执行 lua 脚本，原子完成时间窗口、库存、一人一单的校验以及库存扣减
+        long result = seckillScriptExecutor.tryAcquire(voucherId, userId, voucher.getBeginTime(), voucher.getEndTime());
+        if (result == SeckillScriptExecutor.STOCK_NOT_INIT) {
+            //库存 key 丢失，数据库库存落后于在途订单，不能直接从数据库加载，拒绝下单直到运维重新同步
+            //飞书群消息警告，人工干预
+            log.error("秒杀库存未初始化，需要重新同步，优惠券id：{}", voucherId);
+            return Result.fail("活动火爆，请刷新重试！");
+        }
 
-            //判断 Redis 库存是否扣减成功
-            if (!deductRedisStock(voucherId)) {
-                return Result.fail("库存不足！");
-            }
+        if (result == SeckillScriptExecutor.NOT_STARTED) {
+            //尚未开始
+            return Result.fail("秒杀尚未开始！");
+        }
+        if (result == SeckillScriptExecutor.ENDED) {
+            //已经结束
+            return Result.fail("秒杀已经结束！");
+        }
+        if (result == SeckillScriptExecutor.REPEAT_ORDER) {
+            //不是一人一单
+            return Result.fail("不能重复下单！");
+        }
+        if (result == SeckillScriptExecutor.STOCK_NOT_ENOUGH) {
+            //库存不足，本地标记售罄
+            seckillLocalCache.markSoldOut(voucherId);
+            return Result.fail("库存不足！");
+        }
+        if (result != SeckillScriptExecutor.SUCCESS) {
+            return Result.fail("活动火爆，请刷新重试！");
+        }
 
-            long orderId = redisIdWorker.nextId("order");
+        long orderId = idWorker.nextId("order");
+        try {
             //发送秒杀消息
             this.sendSeckillMessage(userId, voucherId, orderId);
-
-            return Result.ok(orderId);
-        } finally {
-            locker.unlock(lockKey);
+        } catch (Exception e) {
+            //消息发送失败，归还库存和下单资格
+            log.error("发送秒杀消息失败，优惠券id：{}，用户id：{}", voucherId, userId, e);
+            if (seckillScriptExecutor.rollback(voucherId, userId)) {
+                seckillLocalCache.publishInvalidate(voucherId);
+            }
+            return Result.fail("活动火爆，请刷新重试！");
         }
-    }
 
-    /**
-     * 扣减 Redis 库存
-     */
-    private boolean deductRedisStock(Long voucherId) {
-        String voucherKey = String.format(VOUCHER_KEY, voucherId);
-        String voucherJson = stringRedisTemplate.opsForValue().get(voucherKey);
+        return Result.ok(orderId);
+    }
 
-        if (StringUtils.isBlank(voucherJson)) {
-            log.error("扣减库存失败，优惠券id：{}", voucherId);
+    @Override
+    @Transactional
+    public boolean createSeckillOrder(VoucherOrder order) {
+        //已经落库的订单直接跳过
+        if (filterDoneOrders(Collections.singletonList(order)).isEmpty()) {
+            log.warn("秒杀订单已处理，订单id：{}", order.getId());
             return false;
         }
 
-        SeckillVoucher seckillVoucher = JSON.parseObject(voucherJson, SeckillVoucher.class);
-        if (seckillVoucher.getStock() <= 0) {
-            log.error("扣减库存失败，优惠券id：{}", voucherId);
+        try {
+            //订单id为主键，先插入订单，重复消费时插入失败，不会重复扣减库存
+            save(order);
+        } catch (DuplicateKeyException e) {
+            log.warn("秒杀订单已存在，订单id：{}", order.getId());
+            markOrderDone(Collections.singletonList(order.getId()));
             return false;
         }
 
-        seckillVoucher.setStock(seckillVoucher.getStock() - 1);
-        stringRedisTemplate.opsForValue().set(voucherKey, JSON.toJSONString(seckillVoucher));
-
+        //扣减数据库库存，与插入订单在同一个事务中
+        deductDbStock(order.getVoucherId(), 1L);
+        markOrderDoneAfterCommit(Collections.singletonList(order.getId()));
         return true;
     }
 
+    @Override
+    @Transactional
+    public void createSeckillOrders(List<VoucherOrder> orders) {
+        //批次内按订单id去重，并过滤已经落库的订单
+        Map<Long, VoucherOrder> orderMap = new LinkedHashMap<>();
+        orders.forEach(order -> orderMap.putIfAbsent(order.getId(), order));
+        List<VoucherOrder> newOrders = filterDoneOrders(new ArrayList<>(orderMap.values()));
+        if (!newOrders.isEmpty()) {
+            Set<Long> existIds = super.listByIds(newOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                    .stream()
+                    .map(VoucherOrder::getId)
+                    .collect(Collectors.toSet());
+            newOrders = newOrders.stream()
+                    .filter(order -> !existIds.contains(order.getId()))
+                    .collect(Collectors.toList());
+        }
+        if (newOrders.isEmpty()) {
+            log.warn("秒杀订单均已处理，消息数：{}", orders.size());
+            return;
+        }
+
+        //多行插入订单，并发消费到相同订单时主键冲突，整批回滚后重试
+        getBaseMapper().insertBatch(newOrders);
+
+        //按优惠券合并扣减数据库库存
+        Map<Long, Long> countMap = newOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        countMap.forEach(this::deductDbStock);
+
+        markOrderDoneAfterCommit(newOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+    }
+
     /**
-     * 获取优惠券
+     * 扣减数据库库存
      */
-    private SeckillVoucher getVoucher(Long voucherId) {
-        String voucherKey = String.format(VOUCHER_KEY, voucherId);
-        String voucherJson = stringRedisTemplate.opsForValue().get(voucherKey);
-
-        if (StringUtils.isNotBlank(voucherJson)) {
-            return JSON.parseObject(voucherJson, SeckillVoucher.class);
-        } else {
-            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-            if (voucher != null) {
-                //30 分钟过期
-                stringRedisTemplate.opsForValue().set(voucherKey, JSON.toJSONString(voucher), 30 * 60);
-            }
-            return voucher;
+    private void deductDbStock(Long voucherId, Long count) {
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            //飞书群消息警告，人工干预
+            log.error("扣减库存失败，优惠券id：{}，数量：{}", voucherId, count);
         }
     }
 
     /**
-     * 发送秒杀消息
+     * 通过 redis 标记过滤已经落库的订单
+     *
+     * @return 尚未落库的订单
      */
-    private void sendSeckillMessage(Long userId, Long voucherId, Long orderId) {
-        if (userId == null || voucherId == null || orderId == null) {
-            return;
+    private List<VoucherOrder> filterDoneOrders(List<VoucherOrder> orders) {
+        List<String> keys = orders.stream()
+                .map(order -> String.format(SECKILL_ORDER_DONE_KEY, order.getId()))
+                .collect(Collectors.toList());
+        List<String> marks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (marks == null) {
+            return orders;
         }
 
-        Map<String, String> message = Maps.newHashMap();
-        message.put("userId", String.valueOf(userId));
-        message.put("voucherId", String.valueOf(voucherId));
-        message.put("orderId", String.valueOf(orderId));
-
-        log.warn("发送秒杀消息：{}", message);
-
-        rabbitTemplate.convertAndSend("seckillQueue", message);
+        List<VoucherOrder> result = new ArrayList<>(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            if (marks.get(i) == null) {
+                result.add(orders.get(i));
+            }
+        }
+        return result;
     }
 
-    private boolean isSeckillStarted(SeckillVoucher voucher) {
-        return voucher.getBeginTime().isBefore(LocalDateTime.now());
+    /**
+     * 事务提交后标记订单已落库
+     */
+    private void markOrderDoneAfterCommit(List<Long> orderIds) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                markOrderDone(orderIds);
+            }
+        });
     }
 
-    private boolean isSeckillEnded(SeckillVoucher voucher) {
-        return voucher.getEndTime().isBefore(LocalDateTime.now());
+    /**
+     * 标记订单已落库
+     */
+    private void markOrderDone(List<Long> orderIds) {
+        long ttl = TimeUnit.HOURS.toSeconds(ORDER_DONE_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            orderIds.forEach(orderId -> stringConnection.setEx(String.format(SECKILL_ORDER_DONE_KEY, orderId), ttl, "1"));
+            return null;
+        });
     }
 
-    private boolean isStockEnough(SeckillVoucher voucher) {
-        return voucher.getStock() > 0;
+    /**
+     * 获取优惠券的元数据（开始、结束时间等只读信息）
+     * <p>
+     * 库存单独存放在 {@link com.hmdp.utils.RedisConstants#SECKILL_STOCK_KEY} 的整数计数器中，
+     * 这里缓存的元数据不包含库存，秒杀过程中只读不写
+     */
+    private SeckillVoucher getVoucher(Long voucherId) {
+        //并发未命中时只有一个请求查询数据库，30 分钟过期
+        return cacheClient.queryWithPassThrough(CACHE_VOUCHER_KEY, voucherId, SeckillVoucher.class, id -> {
+            SeckillVoucher voucher = seckillVoucherService.getById(id);
+            if (voucher != null) {
+                //库存不进入元数据缓存
+                voucher.setStock(null);
+            }
+            return voucher;
+        }, VOUCHER_CACHE_TTL, TimeUnit.MINUTES);
     }
 
     /**
-     * 通过 redis 的 Set 高效判断是否是一人一单
+     * 发送秒杀消息
      */
-    private boolean isOnePersonOneOrderBySet(Long voucherId) {
-        Long userId = UserHolder.getUser().getId();
-        String userVoucherKey = "user_voucher:" + voucherId;
-
-        //获取该用户在Set中的状态
-        Boolean isMember = stringRedisTemplate.opsForSet().isMember(userVoucherKey, userId.toString());
-        if (isMember == null || !isMember) {
-            //如果该用户没有购买过该商品，那么在Set中添加该用户的ID
-            stringRedisTemplate.opsForSet().add(userVoucherKey, userId.toString());
-            return true;
-        } else {
-            //如果该用户已经购买过该商品，那么返回false
-            return false;
+    private void sendSeckillMessage(Long userId, Long voucherId, Long orderId) {
+        if (userId == null || voucherId == null || orderId == null) {
+            return;
         }
+
+        SeckillMessage message = new SeckillMessage(userId, voucherId, orderId);
+        log.warn("发送秒杀消息：{}", message);
+
+        seckillMessageSender.send(message);
     }
 
     /**
@@ -229,7 +336,7 @@ public class VoucherOrderServiceImpl
      * 通过 redis 的 bitmap 高效判断是否是一人一单
      * <p>
      * 当 userId 比较长的时候，bitmap 的效率会降低。因此 userId 长的时候，不推荐使用此方法。
-     * userId 长的时候，可以使用 Set 来代替。参见 {@link #isOnePersonOneOrderBySet(Long)}
+     * userId 长的时候，可以使用 Set 来代替，参见 lua/seckill.lua 中的一人一单判断
      */
     private boolean isOnePersonOneOrderByBitmap(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
@@ -3,12 +3,19 @@ package com.hmdp.service.impl;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.SeckillLocalCache;
+import com.hmdp.utils.SeckillScriptExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -26,6 +33,14 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillScriptExecutor seckillScriptExecutor;
+    @Resource
+    private SeckillLocalCache seckillLocalCache;
+    @Resource
+    private IdBloomFilter idBloomFilter;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -47,5 +62,50 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        idBloomFilter.addVoucher(voucher.getId());
+        // 事务提交后再初始化秒杀库存，避免回滚后留下不存在的优惠券的库存
+        Long voucherId = voucher.getId();
+        Integer stock = voucher.getStock();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                seckillScriptExecutor.resetStock(voucherId, stock);
+            }
+        });
+    }
+
+    @Override
+    @Transactional
+    public boolean addSeckillStock(Long voucherId, Integer count) {
+        // 补充数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (success) {
+            // 事务提交后再补充 redis 库存，并通知各节点清除售罄标记，避免回滚后 redis 库存多于数据库
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    seckillScriptExecutor.addStock(voucherId, count);
+                    seckillLocalCache.publishInvalidate(voucherId);
+                }
+            });
+        }
+        return success;
+    }
+
+    @Override
+    public long syncSeckillStock(Long voucherId) {
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        if (seckillVoucher == null) {
+            return -1L;
+        }
+        int orderCount = voucherOrderService.lambdaQuery().eq(VoucherOrder::getVoucherId, voucherId).count();
+        long stock = seckillScriptExecutor.syncStock(voucherId, seckillVoucher.getStock(), orderCount);
+        if (stock >= 0) {
+            seckillLocalCache.publishInvalidate(voucherId);
+        }
+        return stock;
     }
 }
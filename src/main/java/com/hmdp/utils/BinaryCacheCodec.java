@@ -0,0 +1,500 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/15 10:40
+ * @description 二进制编解码器，按类的字段结构紧凑编码，超过阈值时压缩
+ * <p>
+ * 格式：版本(1 字节) | 标记(1 字节) | 字段结构哈希(4 字节) | [逻辑过期时间] | [压缩前长度] | 数据。
+ * 数据部分先写空值位图，再按字段名顺序写非空字段：整数使用 zigzag 变长编码，字符串使用 UTF-8，时间使用秒和纳秒。
+ * 类结构变化后哈希不一致，旧数据按未命中处理，由调用方重新加载。值为 null 时只写标记，没有数据部分。
+ * 压缩使用线程内复用的 Deflater/Inflater，避免每次创建和释放 zlib 的本地内存
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "binary")
+public class BinaryCacheCodec implements CacheCodec {
+    private static final byte VERSION = 1;
+    /**
+     * 数据经过压缩
+     */
+    private static final int FLAG_COMPRESSED = 1;
+    /**
+     * 携带逻辑过期时间
+     */
+    private static final int FLAG_EXPIRE = 1 << 1;
+    /**
+     * 值为 null
+     */
+    private static final int FLAG_NULL = 1 << 2;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    /**
+     * 压缩时的输出缓冲区
+     */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    private static final int TYPE_LONG = 1;
+    private static final int TYPE_INT = 2;
+    private static final int TYPE_DOUBLE = 3;
+    private static final int TYPE_FLOAT = 4;
+    private static final int TYPE_BOOLEAN = 5;
+    private static final int TYPE_STRING = 6;
+    private static final int TYPE_LOCAL_DATE_TIME = 7;
+    private static final int TYPE_LOCAL_DATE = 8;
+    private static final int TYPE_SHORT = 9;
+    private static final int TYPE_BYTE = 10;
+
+    /**
+     * 数据超过该字节数时压缩，0 表示不压缩。压缩 1KB 左右的数据耗时是编码本身的数倍，只对大对象压缩
+     */
+    @Value("${hmdp.cache.compress-threshold:4096}")
+    private Integer compressThreshold;
+
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    public BinaryCacheCodec() {
+    }
+
+    public BinaryCacheCodec(Integer compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return encode(value, null);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        RedisData redisData = decode(bytes, type, false);
+        return redisData == null ? null : type.cast(redisData.getData());
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        return encode(value, expireTime);
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        return decode(bytes, type, true);
+    }
+
+    private byte[] encode(Object value, LocalDateTime expireTime) {
+        if (value == null) {
+            return encodeNull(expireTime);
+        }
+        Schema schema = schema(value.getClass());
+        Writer body = new Writer(64);
+        schema.write(value, body);
+        byte[] data = body.toByteArray();
+
+        int flags = 0;
+        if (expireTime != null) {
+            flags |= FLAG_EXPIRE;
+        }
+        byte[] compressed = null;
+        if (compressThreshold > 0 && data.length > compressThreshold) {
+            compressed = deflate(data);
+            if (compressed.length < data.length) {
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        Writer writer = new Writer(16);
+        writer.write(VERSION);
+        writer.write(flags);
+        writer.writeFixedInt(schema.hash);
+        if (expireTime != null) {
+            writeDateTime(writer, expireTime);
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            writer.writeVarInt(data.length);
+            data = compressed;
+        }
+        //头部和数据直接拼接，不再经过一次缓冲区复制
+        byte[] result = new byte[writer.size() + data.length];
+        System.arraycopy(writer.buffer(), 0, result, 0, writer.size());
+        System.arraycopy(data, 0, result, writer.size(), data.length);
+        return result;
+    }
+
+    /**
+     * 编码 null，例如逻辑过期重建时数据库中的数据已经删除
+     */
+    private byte[] encodeNull(LocalDateTime expireTime) {
+        Writer writer = new Writer(16);
+        writer.write(VERSION);
+        writer.write(FLAG_NULL | (expireTime != null ? FLAG_EXPIRE : 0));
+        writer.writeFixedInt(0);
+        if (expireTime != null) {
+            writeDateTime(writer, expireTime);
+        }
+        return writer.toByteArray();
+    }
+
+    private RedisData decode(byte[] bytes, Class<?> type, boolean withExpire) {
+        if (bytes.length < 6 || bytes[0] != VERSION) {
+            //不是本编解码器写入的数据，例如切换编解码器前写入的 json
+            return null;
+        }
+        Reader reader = new Reader(bytes, 1);
+        int flags = reader.read();
+        if ((flags & FLAG_NULL) != 0) {
+            reader.readFixedInt();
+            if (((flags & FLAG_EXPIRE) != 0) != withExpire) {
+                return null;
+            }
+            RedisData redisData = new RedisData();
+            if (withExpire) {
+                redisData.setExpireTime(readDateTime(reader));
+            }
+            return redisData;
+        }
+        Schema schema = schema(type);
+        if (reader.readFixedInt() != schema.hash || ((flags & FLAG_EXPIRE) != 0) != withExpire) {
+            return null;
+        }
+
+        try {
+            RedisData redisData = new RedisData();
+            if (withExpire) {
+                redisData.setExpireTime(readDateTime(reader));
+            }
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                int length = reader.readVarInt();
+                reader = new Reader(inflate(bytes, reader.position, length), 0);
+            }
+            redisData.setData(schema.read(reader));
+            return redisData;
+        } catch (RuntimeException | DataFormatException e) {
+            log.warn("缓存二进制解码失败，类型：{}，原因：{}", type.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        byte[] buffer = BUFFER.get();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, int offset, int length) throws DataFormatException {
+        Inflater inflater = INFLATER.get();
+        try {
+            inflater.setInput(bytes, offset, bytes.length - offset);
+            byte[] data = new byte[length];
+            int count = 0;
+            while (count < length && !inflater.finished()) {
+                int n = inflater.inflate(data, count, length - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("压缩数据不完整");
+                }
+                count += n;
+            }
+            return data;
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private static void writeDateTime(Writer writer, LocalDateTime time) {
+        writer.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+        writer.writeVarInt(time.getNano());
+    }
+
+    private static LocalDateTime readDateTime(Reader reader) {
+        long epochSecond = reader.readVarLong();
+        int nano = reader.readVarInt();
+        return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+    }
+
+    /**
+     * 类的字段结构，字段按名称排序
+     */
+    private static class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final int[] types;
+        private final int hash;
+
+        private Schema(Class<?> type) {
+            List<Field> fieldList = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fieldList.add(field);
+                }
+            }
+            fieldList.sort(Comparator.comparing(Field::getName));
+
+            this.fields = fieldList.toArray(new Field[0]);
+            this.types = new int[fields.length];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = typeOf(type, fields[i]);
+                signature.append(';').append(fields[i].getName()).append(':').append(types[i]);
+            }
+            this.hash = signature.toString().hashCode();
+
+            try {
+                this.constructor = type.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("缓存类型缺少无参构造方法：" + type.getName(), e);
+            }
+        }
+
+        private static int typeOf(Class<?> owner, Field field) {
+            Class<?> type = field.getType();
+            if (type == Long.class || type == long.class) {
+                return TYPE_LONG;
+            } else if (type == Integer.class || type == int.class) {
+                return TYPE_INT;
+            } else if (type == Double.class || type == double.class) {
+                return TYPE_DOUBLE;
+            } else if (type == Float.class || type == float.class) {
+                return TYPE_FLOAT;
+            } else if (type == Boolean.class || type == boolean.class) {
+                return TYPE_BOOLEAN;
+            } else if (type == String.class) {
+                return TYPE_STRING;
+            } else if (type == LocalDateTime.class) {
+                return TYPE_LOCAL_DATE_TIME;
+            } else if (type == LocalDate.class) {
+                return TYPE_LOCAL_DATE;
+            } else if (type == Short.class || type == short.class) {
+                return TYPE_SHORT;
+            } else if (type == Byte.class || type == byte.class) {
+                return TYPE_BYTE;
+            }
+            throw new IllegalArgumentException("二进制缓存不支持的字段类型：" + owner.getName() + "." + field.getName());
+        }
+
+        private void write(Object value, Writer writer) {
+            try {
+                //空值位图
+                byte[] nulls = new byte[(fields.length + 7) / 8];
+                Object[] values = new Object[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = fields[i].get(value);
+                    if (values[i] == null) {
+                        nulls[i >> 3] |= 1 << (i & 7);
+                    }
+                }
+                writer.write(nulls, 0, nulls.length);
+
+                for (int i = 0; i < fields.length; i++) {
+                    if (values[i] != null) {
+                        writeValue(types[i], values[i], writer);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Object read(Reader reader) {
+            try {
+                Object value = constructor.newInstance();
+                int nullsOffset = reader.position;
+                reader.position += (fields.length + 7) / 8;
+                for (int i = 0; i < fields.length; i++) {
+                    boolean isNull = (reader.bytes[nullsOffset + (i >> 3)] & (1 << (i & 7))) != 0;
+                    if (!isNull) {
+                        fields[i].set(value, readValue(types[i], reader));
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static void writeValue(int type, Object value, Writer writer) {
+            switch (type) {
+                case TYPE_LONG:
+                    writer.writeVarLong((Long) value);
+                    break;
+                case TYPE_INT:
+                    writer.writeVarInt((Integer) value);
+                    break;
+                case TYPE_SHORT:
+                    writer.writeVarInt((Short) value);
+                    break;
+                case TYPE_BYTE:
+                    writer.write((Byte) value);
+                    break;
+                case TYPE_DOUBLE:
+                    writer.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+                    break;
+                case TYPE_FLOAT:
+                    writer.writeFixedInt(Float.floatToRawIntBits((Float) value));
+                    break;
+                case TYPE_BOOLEAN:
+                    writer.write((Boolean) value ? 1 : 0);
+                    break;
+                case TYPE_STRING:
+                    byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    writer.writeVarInt(bytes.length);
+                    writer.write(bytes, 0, bytes.length);
+                    break;
+                case TYPE_LOCAL_DATE_TIME:
+                    writeDateTime(writer, (LocalDateTime) value);
+                    break;
+                case TYPE_LOCAL_DATE:
+                    writer.writeVarLong(((LocalDate) value).toEpochDay());
+                    break;
+                default:
+                    throw new IllegalStateException("未知字段类型：" + type);
+            }
+        }
+
+        private static Object readValue(int type, Reader reader) {
+            switch (type) {
+                case TYPE_LONG:
+                    return reader.readVarLong();
+                case TYPE_INT:
+                    return reader.readVarInt();
+                case TYPE_SHORT:
+                    return (short) reader.readVarInt();
+                case TYPE_BYTE:
+                    return (byte) reader.read();
+                case TYPE_DOUBLE:
+                    return Double.longBitsToDouble(reader.readFixedLong());
+                case TYPE_FLOAT:
+                    return Float.intBitsToFloat(reader.readFixedInt());
+                case TYPE_BOOLEAN:
+                    return reader.read() != 0;
+                case TYPE_STRING:
+                    int length = reader.readVarInt();
+                    String value = new String(reader.bytes, reader.position, length, StandardCharsets.UTF_8);
+                    reader.position += length;
+                    return value;
+                case TYPE_LOCAL_DATE_TIME:
+                    return readDateTime(reader);
+                case TYPE_LOCAL_DATE:
+                    return LocalDate.ofEpochDay(reader.readVarLong());
+                default:
+                    throw new IllegalStateException("未知字段类型：" + type);
+            }
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        private Writer(int size) {
+            super(size);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value);
+        }
+
+        private void writeVarLong(long value) {
+            //zigzag 编码，绝对值小的负数也只占少量字节
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        private void writeFixedInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void writeFixedLong(long value) {
+            writeFixedInt((int) (value >>> 32));
+            writeFixedInt((int) value);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        private int read() {
+            return bytes[position++] & 0xFF;
+        }
+
+        private int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        private long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = read();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private int readFixedInt() {
+            return read() << 24 | read() << 16 | read() << 8 | read();
+        }
+
+        private long readFixedLong() {
+            return (long) readFixedInt() << 32 | (readFixedInt() & 0xFFFFFFFFL);
+        }
+    }
+}
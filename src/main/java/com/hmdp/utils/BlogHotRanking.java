@@ -0,0 +1,286 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.constant.RedisKeyConstant.BLOG_HOT_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_HOT_LOCK_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_HOT_READY_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_HOT_TIME_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_HOT_WEIGHT_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/22 14:30
+ * @description 热门博文排名，排名分数 = 互动权重 / (发布小时数 + 2) ^ 衰减指数，互动权重 = 点赞数 * 点赞权重 + 评论数 * 评论权重
+ * <p>
+ * 点赞、评论时通过 lua 脚本增量更新权重和分数，热门列表直接从排名 zset 分页读取。
+ * 全部博文都参与排名，旧博文由衰减排到后面；没有互动的博文分数不会自动衰减，由后台任务定时重新计算
+ */
+@Slf4j
+@Component
+public class BlogHotRanking {
+    private static final int BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT;
+
+    static {
+        INCR_SCRIPT = new DefaultRedisScript<>();
+        INCR_SCRIPT.setLocation(new ClassPathResource("lua/blog_hot_incr.lua"));
+        INCR_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 是否开启排名，关闭时热门列表按点赞数查询数据库
+     */
+    @Value("${hmdp.blog.hot.enabled:true}")
+    private Boolean enabled;
+
+    /**
+     * 点赞权重
+     */
+    @Value("${hmdp.blog.hot.like-weight:1}")
+    private Double likeWeight;
+
+    /**
+     * 评论权重
+     */
+    @Value("${hmdp.blog.hot.comment-weight:2}")
+    private Double commentWeight;
+
+    /**
+     * 衰减指数，越大旧博文下降越快
+     */
+    @Value("${hmdp.blog.hot.gravity:1.8}")
+    private Double gravity;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private RedissonClient redissonClient;
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(BLOG_HOT_LOCK_KEY);
+        lock.lock();
+        try {
+            //排名中的博文少于数据库时重新加载，补齐丢失或旧版本未加载的博文
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_READY_KEY)) || isIncomplete()) {
+                long count = load();
+                stringRedisTemplate.opsForValue().set(BLOG_HOT_READY_KEY, "1");
+                log.info("热门博文排名加载完成，数量：{}", count);
+            }
+            ready = true;
+        } catch (Exception e) {
+            //加载失败时按点赞数查询数据库
+            log.error("热门博文排名加载失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 排名是否可用
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 分页读取热门博文id
+     *
+     * @param current 页码，从 1 开始
+     */
+    public List<Long> queryIds(int current, int size) {
+        long start = (long) (current - 1) * size;
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, start, start + size - 1);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 发布博文，加入排名
+     */
+    public void onPublish(Long blogId, LocalDateTime createTime) {
+        if (!ready) {
+            return;
+        }
+        String id = blogId.toString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.zAdd(BLOG_HOT_TIME_KEY, toMillis(createTime), id);
+            stringConnection.zAdd(BLOG_HOT_WEIGHT_KEY, 0, id);
+            stringConnection.zAdd(BLOG_HOT_KEY, 0, id);
+            return null;
+        });
+    }
+
+    /**
+     * 点赞或取消点赞
+     *
+     * @param delta 1:点赞 -1:取消点赞
+     */
+    public void onLike(Long blogId, int delta) {
+        increment(blogId, delta * likeWeight);
+    }
+
+    /**
+     * 评论
+     */
+    public void onComment(Long blogId) {
+        increment(blogId, commentWeight);
+    }
+
+    /**
+     * 定时重新计算衰减后的分数，同一时间只有一个节点执行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.hot.recompute-interval:600000}")
+    public void recompute() {
+        if (!ready) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(BLOG_HOT_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            //按发布时间分批重新计算
+            for (long start = 0; ; start += BATCH_SIZE) {
+                Set<ZSetOperations.TypedTuple<String>> times = stringRedisTemplate.opsForZSet()
+                        .rangeWithScores(BLOG_HOT_TIME_KEY, start, start + BATCH_SIZE - 1);
+                if (times == null || times.isEmpty()) {
+                    return;
+                }
+                List<ZSetOperations.TypedTuple<String>> batch = new ArrayList<>(times);
+                List<Object> weights = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    batch.forEach(time -> stringConnection.zScore(BLOG_HOT_WEIGHT_KEY, time.getValue()));
+                    return null;
+                });
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    for (int i = 0; i < batch.size(); i++) {
+                        Double weight = (Double) weights.get(i);
+                        ZSetOperations.TypedTuple<String> time = batch.get(i);
+                        stringConnection.zAdd(BLOG_HOT_KEY,
+                                score(weight == null ? 0 : weight, time.getScore().longValue(), now), time.getValue());
+                    }
+                    return null;
+                });
+                if (batch.size() < BATCH_SIZE) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("重新计算热门博文排名失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void increment(Long blogId, double delta) {
+        if (!ready) {
+            return;
+        }
+        stringRedisTemplate.execute(INCR_SCRIPT,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_WEIGHT_KEY, BLOG_HOT_TIME_KEY),
+                blogId.toString(), String.valueOf(delta),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(gravity));
+    }
+
+    /**
+     * 排名中的博文数是否少于数据库，删除的博文可能还在排名中，只判断少于
+     */
+    private boolean isIncomplete() {
+        Long size = stringRedisTemplate.opsForZSet().zCard(BLOG_HOT_TIME_KEY);
+        Integer count = blogMapper.selectCount(null);
+        return size == null || count != null && size < count;
+    }
+
+    /**
+     * 从数据库加载全部博文
+     */
+    private long load() {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.delete(Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_WEIGHT_KEY, BLOG_HOT_TIME_KEY));
+        long count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Blog> blogs = blogMapper.selectList(new LambdaQueryWrapper<Blog>()
+                    .select(Blog::getId, Blog::getLiked, Blog::getComments, Blog::getCreateTime)
+                    .gt(Blog::getId, lastId)
+                    .orderByAsc(Blog::getId)
+                    .last("limit " + BATCH_SIZE));
+            if (blogs.isEmpty()) {
+                return count;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Blog blog : blogs) {
+                    String id = blog.getId().toString();
+                    long createTime = toMillis(blog.getCreateTime());
+                    double weight = value(blog.getLiked()) * likeWeight + value(blog.getComments()) * commentWeight;
+                    stringConnection.zAdd(BLOG_HOT_TIME_KEY, createTime, id);
+                    stringConnection.zAdd(BLOG_HOT_WEIGHT_KEY, weight, id);
+                    stringConnection.zAdd(BLOG_HOT_KEY, score(weight, createTime, now), id);
+                }
+                return null;
+            });
+            count += blogs.size();
+            if (blogs.size() < BATCH_SIZE) {
+                return count;
+            }
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 与 lua 脚本中的计算保持一致
+     */
+    private double score(double weight, long createTime, long now) {
+        double hours = Math.max(0, now - createTime) / 3600000.0;
+        return weight / Math.pow(hours + 2, gravity);
+    }
+
+    private long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private int value(Integer count) {
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.constant.RedisKeyConstant.BLOG_LIKE_COUNT_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_LIKE_DIRTY_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOG_LIKE_FLUSH_LOCK_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/25 10:20
+ * @description 点赞数异步落库，点赞时只修改 redis 中的点赞数，定时把有变化的博文点赞数批量写入数据库
+ * <p>
+ * 写入的是 redis 中的点赞数绝对值而不是增量，重复写入结果不变，写入失败时把博文id放回待落库集合下次重试。
+ * 同一时间只有一个节点执行，避免不同节点读到的新旧点赞数乱序覆盖
+ */
+@Slf4j
+@Component
+public class BlogLikeFlusher {
+    /**
+     * 每批落库的博文数量
+     */
+    @Value("${hmdp.blog.like.flush-batch-size:500}")
+    private Integer batchSize;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Scheduled(fixedDelayString = "${hmdp.blog.like.flush-interval:5000}")
+    public void flush() {
+        RLock lock = redissonClient.getLock(BLOG_LIKE_FLUSH_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            while (true) {
+                List<String> ids = stringRedisTemplate.opsForSet().pop(BLOG_LIKE_DIRTY_KEY, batchSize);
+                if (ids == null || ids.isEmpty()) {
+                    return;
+                }
+                flushBatch(ids);
+                if (ids.size() < batchSize) {
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushBatch(List<String> ids) {
+        try {
+            List<Object> counts = stringRedisTemplate.opsForHash().multiGet(BLOG_LIKE_COUNT_KEY, new ArrayList<>(ids));
+            List<Blog> blogs = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                Object count = counts.get(i);
+                if (count != null) {
+                    blogs.add(new Blog()
+                            .setId(Long.valueOf(ids.get(i)))
+                            .setLiked(Math.max(0, Integer.parseInt(count.toString()))));
+                }
+            }
+            if (!blogs.isEmpty()) {
+                blogMapper.updateLikedBatch(blogs);
+            }
+        } catch (Exception e) {
+            //放回待落库集合，下次重试
+            stringRedisTemplate.opsForSet().add(BLOG_LIKE_DIRTY_KEY, ids.toArray(new String[0]));
+            log.error("点赞数落库失败，博文数量：{}", ids.size(), e);
+        }
+    }
+}
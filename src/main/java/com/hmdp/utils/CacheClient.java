@@ -1,23 +1,39 @@
 package com.hmdp.utils;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
-import com.baomidou.mybatisplus.core.toolkit.StringUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.constant.RedisKeyConstant.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.constant.RedisKeyConstant.CACHE_LOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 
 /**
@@ -28,15 +44,132 @@ import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 @Slf4j
 @Component
 public class CacheClient {
+    /**
+     * 本地缓存中的空值标记
+     */
+    private static final Object NULL_VALUE = new Object();
+    /**
+     * 未获取到缓存重建锁时的最大等待次数
+     */
+    private static final int MUTEX_MAX_RETRY = 10;
+    /**
+     * 未获取到缓存重建锁时的等待间隔，单位：毫秒
+     */
+    private static final long MUTEX_RETRY_INTERVAL = 50L;
+
     private final StringRedisTemplate redisTemplate;
 
+    /**
+     * 读写缓存数据，存储格式由编解码器决定
+     */
+    private final RedisTemplate<String, byte[]> bytesRedisTemplate;
+
+    private final CacheCodec codec;
+
+    /**
+     * 是否开启本地缓存
+     */
+    @Value("${hmdp.cache.local.enabled:false}")
+    private Boolean localEnabled;
+
+    /**
+     * 本地缓存最大条数
+     */
+    @Value("${hmdp.cache.local.maximum-size:10000}")
+    private Long localMaximumSize;
+
+    /**
+     * 本地缓存过期时间，单位：秒。修改数据时会通过 redis 发布订阅清除，过期时间用于兜底丢失的通知
+     */
+    @Value("${hmdp.cache.local.ttl:10}")
+    private Long localTtl;
+
+    /**
+     * 缓存重建线程数
+     */
+    @Value("${hmdp.cache.rebuild.pool-size:4}")
+    private Integer rebuildPoolSize;
+
+    /**
+     * 缓存重建任务队列容量，队列满时放弃重建
+     */
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private Integer rebuildQueueCapacity;
+
+    /**
+     * 提前刷新比例，剩余逻辑过期时间不足 过期时间 * 该比例 时提前重建，0 表示关闭
+     */
+    @Value("${hmdp.cache.rebuild.refresh-ahead-ratio:0.2}")
+    private Double refreshAheadRatio;
+
+    /**
+     * 刷新周期内访问次数达到该值的 key 才会提前刷新
+     */
+    @Value("${hmdp.cache.rebuild.hot-threshold:10}")
+    private Long refreshHotThreshold;
+
+    /**
+     * 本地缓存，key 为 redis key，value 为反序列化后的对象
+     */
+    private Cache<String, Object> localCache;
+
+    /**
+     * 缓存重建线程池
+     */
+    private ThreadPoolExecutor rebuildExecutor;
+
+    /**
+     * 缓存重建统计
+     */
+    private final RebuildStats rebuildStats = new RebuildStats();
+
+    /**
+     * 逻辑过期 key 的访问记录，一段时间没有访问的 key 自动移除
+     */
+    private final Cache<String, RefreshTask> refreshTasks = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 本地缓存命中统计，key 为业务前缀
+     */
+    private final Map<String, CacheStats> statsMap = new ConcurrentHashMap<>();
+
+    /**
+     * 正在加载的 key，用于合并同一节点内的并发加载
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
     @Autowired
-    public CacheClient(StringRedisTemplate redisTemplate) {
+    public CacheClient(StringRedisTemplate redisTemplate,
+                       RedisTemplate<String, byte[]> bytesRedisTemplate,
+                       CacheCodec codec) {
         this.redisTemplate = redisTemplate;
+        this.bytesRedisTemplate = bytesRedisTemplate;
+        this.codec = codec;
+    }
+
+    @PostConstruct
+    public void init() {
+        localCache = CacheBuilder.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtl, TimeUnit.SECONDS)
+                .build();
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        rebuildExecutor = new ThreadPoolExecutor(rebuildPoolSize, rebuildPoolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(rebuildQueueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
     /**
-     * 将任意对象序列化为 json 存入 redis
+     * 将任意对象编码后存入 redis
      *
      * @param key   键
      * @param value 值
@@ -44,11 +177,11 @@ public class CacheClient {
      * @param unit  时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        redisTemplate.opsForValue().set(key, JSON.toJSONString(value), time, unit);
+        bytesRedisTemplate.opsForValue().set(key, codec.encode(value), time, unit);
     }
 
     /**
-     * 将任意对象序列化为 json 存入 redis，携带逻辑过期时间，用于解决 redis 缓存中的缓存击穿的问题。
+     * 将任意对象编码后存入 redis，携带逻辑过期时间，用于解决 redis 缓存中的缓存击穿的问题。
      *
      * @param key   键
      * @param value 值
@@ -56,11 +189,9 @@ public class CacheClient {
      * @param unit  时间单位
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
         //存入 redis，设置为永久有效
-        redisTemplate.opsForValue().set(key, JSON.toJSONString(redisData));
+        bytesRedisTemplate.opsForValue().set(key, codec.encodeWithExpire(value, expireTime));
     }
 
     /**
@@ -73,30 +204,155 @@ public class CacheClient {
                                           Long time,
                                           TimeUnit unit) {
         String key = keyPrefix + id;
-        String json = redisTemplate.opsForValue().get(key);
-        if (StringUtils.isNotBlank(json)) {
-            //Redis 中存在值，直接返回即可
-            return JSON.parseObject(json, type);
-        } else if (StringUtils.equals("", json)) {
-            //缓存的是空置，直接返回 null
+        //优先读取本地缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+
+        Object cached = getFromRedis(key, type);
+        if (cached != null) {
+            //Redis 中存在值，直接返回即可；缓存的是空值时返回 null
+            putLocal(key, cached);
+            return cached == NULL_VALUE ? null : type.cast(cached);
+        }
+
+        //缓存未命中，同一节点内合并并发加载，节点之间通过互斥锁保证只有一个请求查询数据库
+        R r = singleFlight(key, () -> loadWithMutex(key, id, type, dbFallback, time, unit, false));
+        putLocal(key, r == null ? NULL_VALUE : r);
+        return r;
+    }
+
+    /**
+     * 读取 redis 中的缓存
+     *
+     * @return null:未命中或存储格式不兼容 NULL_VALUE:缓存的是空值
+     */
+    private Object getFromRedis(String key, Class<?> type) {
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        if (bytes == null) {
             return null;
         }
+        if (bytes.length == 0) {
+            return NULL_VALUE;
+        }
+        return codec.decode(bytes, type);
+    }
 
-        //数据库不存在，直接查询数据库
-        R r = dbFallback.apply(id);
-        if (Objects.isNull(r)) {
-            //数据库不存在，缓存空值
-            this.set(key, "", time, unit);
+    /**
+     * 读取 redis 中携带逻辑过期时间的缓存，不判断是否过期
+     *
+     * @return null:未命中或存储格式不兼容 NULL_VALUE:缓存的是空值
+     */
+    private Object getLogicalFromRedis(String key, Class<?> type) {
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        if (bytes == null) {
             return null;
-        } else {
-            //数据库存在，缓存到 Redis
-            this.set(key, r, time, unit);
+        }
+        if (bytes.length == 0) {
+            return NULL_VALUE;
+        }
+        RedisData redisData = codec.decodeWithExpire(bytes, type);
+        return redisData == null ? null : redisData.getData();
+    }
+
+    /**
+     * 合并同一个 key 的并发加载，同一时间只有一个线程执行 loader，其他线程等待并共享其结果或异常
+     *
+     * @param key    加载的 key
+     * @param loader 加载逻辑
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            try {
+                return (R) inFlight.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+            }
+        }
+
+        try {
+            R r = loader.get();
+            future.complete(r);
             return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
         }
     }
 
+    /**
+     * 获取互斥锁后查询数据库并写入缓存，未获取到锁时等待其他节点写入缓存
+     *
+     * @param logicalExpire 是否按逻辑过期格式读写缓存
+     */
+    private <R, ID> R loadWithMutex(String key,
+                                    ID id,
+                                    Class<R> type,
+                                    Function<ID, R> dbFallback,
+                                    Long time,
+                                    TimeUnit unit,
+                                    boolean logicalExpire) {
+        String lockKey = String.format(CACHE_LOCK_KEY, key);
+        for (int i = 0; i < MUTEX_MAX_RETRY; i++) {
+            boolean lock = tryLock(lockKey);
+            if (lock) {
+                try {
+                    //获取锁后再次检查缓存，其他节点可能已经写入
+                    Object cached = logicalExpire ? getLogicalFromRedis(key, type) : getFromRedis(key, type);
+                    if (cached != null) {
+                        return cached == NULL_VALUE ? null : type.cast(cached);
+                    }
+
+                    R r = dbFallback.apply(id);
+                    if (Objects.isNull(r)) {
+                        //数据库不存在，缓存空值，逻辑过期的数据没有物理过期时间，空值按空值过期时间缓存
+                        if (logicalExpire) {
+                            setNull(key);
+                        } else {
+                            bytesRedisTemplate.opsForValue().set(key, new byte[0], time, unit);
+                        }
+                    } else if (logicalExpire) {
+                        this.setWithLogicalExpire(key, r, time, unit);
+                    } else {
+                        //数据库存在，缓存到 Redis
+                        this.set(key, r, time, unit);
+                    }
+                    return r;
+                } finally {
+                    unlock(lockKey);
+                }
+            }
+
+            //没有获取到锁，等待后读取其他节点写入的缓存
+            try {
+                Thread.sleep(MUTEX_RETRY_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            Object cached = logicalExpire ? getLogicalFromRedis(key, type) : getFromRedis(key, type);
+            if (cached != null) {
+                return cached == NULL_VALUE ? null : type.cast(cached);
+            }
+        }
+
+        //等待超时，直接查询数据库
+        log.warn("等待缓存重建超时，key：{}", key);
+        return dbFallback.apply(id);
+    }
+
     /**
      * 利用逻辑过期时间解决缓存击穿的问题
+     * <p>
+     * 缓存不存在时（未预热、修改数据后被删除或格式不兼容）同步加载，与 {@link #queryWithPassThrough} 一样合并并发加载；
+     * 已过期时返回旧数据并异步重建，热点 key 在过期前由 {@link #refreshAhead()} 提前重建
      */
     public <R, ID> R queryWithLogicalExpire(String keyPrefix,
                                             ID id,
@@ -105,45 +361,194 @@ public class CacheClient {
                                             Long time,
                                             TimeUnit unit) {
         String key = keyPrefix + id;
-        String json = redisTemplate.opsForValue().get(key);
-        if (StringUtils.isBlank(json)) {
-            //这里直接返回 null，是因为之前做过缓存预热了，没有查到数据直接返回空即可
+        //优先读取本地缓存，本地缓存过期时间很短，过期后再由 redis 判断逻辑过期
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            //本地缓存命中也计入访问次数，用于判断是否为热点 key
+            RefreshTask task = refreshTasks.getIfPresent(key);
+            if (task != null) {
+                task.hits.increment();
+            }
+            return type.cast(local);
+        }
+
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        if (bytes != null && bytes.length == 0) {
+            //缓存的是空值
             return null;
         }
 
-        RedisData redisData = JSON.parseObject(json, RedisData.class);
-        JSONObject jsonObject = (JSONObject) redisData.getData();
-        //返回出去给的那个类型
-        R r = BeanUtil.toBean(jsonObject, type);
+        //直接解码为返回的类型
+        RedisData redisData = bytes == null ? null : codec.decodeWithExpire(bytes, type);
+        if (redisData == null) {
+            //未命中或存储格式不兼容，同步加载
+            R r = singleFlight(key, () -> loadWithMutex(key, id, type, dbFallback, time, unit, true));
+            putLocal(key, r);
+            return r;
+        }
+        R r = type.cast(redisData.getData());
 
         LocalDateTime expireTime = redisData.getExpireTime();
+        //记录访问，热点 key 在逻辑过期前由定时任务提前刷新
+        if (refreshAheadRatio > 0) {
+            recordAccess(key, () -> dbFallback.apply(id), time, unit, expireTime);
+        }
+
         if (expireTime != null && expireTime.isAfter(LocalDateTime.now())) {
             //未过期，直接返回
+            putLocal(key, r);
             return r;
         }
 
-        //处理已过期的场景
-        //获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        //处理已过期的场景，异步重建，返回过期的数据
+        rebuildAsync(key, () -> dbFallback.apply(id), time, unit);
+        return r;
+    }
+
+    /**
+     * 获取互斥锁后在重建线程池中异步重建缓存，获取锁失败说明已经有其他线程在重建
+     */
+    private void rebuildAsync(String key, Supplier<Object> loader, Long time, TimeUnit unit) {
+        String lockKey = String.format(CACHE_LOCK_KEY, key);
         boolean lock = tryLock(lockKey);
-        if (lock) {
-            //异步更新数据
-            CompletableFuture.runAsync(() -> {
+        if (!lock) {
+            return;
+        }
+
+        try {
+            rebuildExecutor.execute(() -> {
                 try {
-                    //查询数据库
-                    R r2 = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key, r2, time, unit);
+                    //查询数据库，数据已经删除时缓存空值
+                    Object value = loader.get();
+                    if (value == null) {
+                        setNull(key);
+                    } else {
+                        this.setWithLogicalExpire(key, value, time, unit);
+                    }
+                    RefreshTask task = refreshTasks.getIfPresent(key);
+                    if (task != null) {
+                        task.expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+                    }
+                    rebuildStats.succeeded.increment();
                 } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    rebuildStats.failed.increment();
+                    log.error("缓存重建失败，key：{}", key, e);
                 } finally {
                     //释放锁
                     unlock(lockKey);
                 }
             });
+            rebuildStats.submitted.increment();
+        } catch (RejectedExecutionException e) {
+            //线程池已满，放弃本次重建，由后续请求重新触发
+            rebuildStats.rejected.increment();
+            unlock(lockKey);
+            log.warn("缓存重建线程池已满，key：{}", key);
         }
+    }
 
-        //没有成功获取到锁，返回过期的商铺信息
-        return r;
+    /**
+     * 缓存空值，按空值过期时间过期
+     */
+    private void setNull(String key) {
+        bytesRedisTemplate.opsForValue().set(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 记录逻辑过期 key 的访问
+     */
+    private void recordAccess(String key, Supplier<Object> loader, Long time, TimeUnit unit, LocalDateTime expireTime) {
+        try {
+            RefreshTask task = refreshTasks.get(key, () -> new RefreshTask(loader, time, unit));
+            task.expireTime = expireTime;
+            task.hits.increment();
+        } catch (ExecutionException e) {
+            log.error("记录缓存访问失败，key：{}", key, e);
+        }
+    }
+
+    /**
+     * 提前刷新：刷新周期内访问次数达到阈值，且剩余逻辑过期时间不足 过期时间 * 比例 的 key，在过期前重建
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.rebuild.refresh-interval:1000}")
+    public void refreshAhead() {
+        if (refreshAheadRatio <= 0) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        refreshTasks.asMap().forEach((key, task) -> {
+            long hits = task.hits.sumThenReset();
+            LocalDateTime expireTime = task.expireTime;
+            if (hits < refreshHotThreshold || expireTime == null) {
+                return;
+            }
+            long aheadSeconds = (long) (task.unit.toSeconds(task.time) * refreshAheadRatio);
+            if (now.plusSeconds(aheadSeconds).isAfter(expireTime)) {
+                rebuildAsync(key, task.loader, task.time, task.unit);
+            }
+        });
+    }
+
+    /**
+     * 缓存重建统计
+     */
+    public RebuildStats getRebuildStats() {
+        return rebuildStats;
+    }
+
+    /**
+     * 缓存重建线程池当前排队的任务数
+     */
+    public int getRebuildQueueSize() {
+        return rebuildExecutor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        rebuildExecutor.shutdown();
+    }
+
+    /**
+     * 删除缓存，并通知所有节点清除本地缓存，修改数据后调用
+     */
+    public void delete(String key) {
+        redisTemplate.delete(key);
+        redisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 清除当前节点的本地缓存
+     */
+    public void invalidateLocal(String key) {
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 本地缓存命中统计，key 为业务前缀
+     */
+    public Map<String, CacheStats> getLocalStats() {
+        return Collections.unmodifiableMap(statsMap);
+    }
+
+    private Object getLocal(String keyPrefix, String key) {
+        if (!localEnabled) {
+            return null;
+        }
+        Object value = localCache.getIfPresent(key);
+        CacheStats stats = statsMap.computeIfAbsent(keyPrefix, k -> new CacheStats());
+        if (value != null) {
+            stats.hits.increment();
+        } else {
+            stats.misses.increment();
+        }
+        return value;
+    }
+
+    private void putLocal(String key, Object value) {
+        if (localEnabled && value != null) {
+            localCache.put(key, value);
+        }
     }
 
     /**
@@ -160,4 +565,63 @@ public class CacheClient {
     private void unlock(String key) {
         redisTemplate.delete(key);
     }
+
+    /**
+     * 本地缓存命中统计
+     */
+    public static class CacheStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+    }
+
+    /**
+     * 缓存重建统计
+     */
+    public static class RebuildStats {
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        public long getSubmitted() {
+            return submitted.sum();
+        }
+
+        public long getSucceeded() {
+            return succeeded.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+    }
+
+    /**
+     * 提前刷新任务
+     */
+    private static class RefreshTask {
+        private final Supplier<Object> loader;
+        private final Long time;
+        private final TimeUnit unit;
+        private final LongAdder hits = new LongAdder();
+        private volatile LocalDateTime expireTime;
+
+        private RefreshTask(Supplier<Object> loader, Long time, TimeUnit unit) {
+            this.loader = loader;
+            this.time = time;
+            this.unit = unit;
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/15 10:10
+ * @description 缓存编解码器，决定缓存对象在 redis 中的存储格式
+ */
+public interface CacheCodec {
+    /**
+     * 编码
+     *
+     * @param value 缓存对象，不能为 null
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     *
+     * @return 缓存对象，格式不兼容（例如切换了编解码器或类结构发生变化）时返回 null，调用方按未命中处理
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码携带逻辑过期时间的缓存对象
+     */
+    byte[] encodeWithExpire(Object value, LocalDateTime expireTime);
+
+    /**
+     * 解码携带逻辑过期时间的缓存对象
+     *
+     * @return data 为 type 类型的 {@link RedisData}，格式不兼容时返回 null
+     */
+    RedisData decodeWithExpire(byte[] bytes, Class<?> type);
+}
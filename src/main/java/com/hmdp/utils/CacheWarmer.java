@@ -0,0 +1,270 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.constant.CommonConstant.VOUCHER_CACHE_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/14 14:20
+ * @description 缓存预热，按 id 游标分页读取店铺、店铺类型和未结束的秒杀券，通过管道批量写入 redis，店铺和秒杀券按缓存编解码器的格式写入
+ * <p>
+ * 启动时的预热在 ApplicationRunner 中同步执行，完成后 Spring Boot 才会发布 ACCEPTING_TRAFFIC，
+ * 预热失败时启动失败，避免冷缓存接入流量
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+    /**
+     * 是否在启动时预热
+     */
+    @Value("${hmdp.warmup.enabled:false}")
+    private Boolean enabled;
+
+    /**
+     * 每页读取的数量
+     */
+    @Value("${hmdp.warmup.page-size:500}")
+    private Integer pageSize;
+
+    /**
+     * 过期时间随机增加的最大比例，预热的 key 分散过期，避免同一时刻集中过期造成缓存雪崩
+     */
+    @Value("${hmdp.warmup.ttl-jitter-ratio:0.2}")
+    private Double ttlJitterRatio;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Resource
+    private CacheCodec cacheCodec;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Progress progress = new Progress();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        if (!warmUp()) {
+            throw new IllegalStateException("缓存预热失败");
+        }
+    }
+
+    /**
+     * 后台执行预热，用于运维手动触发
+     *
+     * @return false:已经有预热在执行
+     */
+    public boolean warmUpAsync() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                doWarmUp();
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 当前或最近一次预热的进度
+     */
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * 执行预热
+     *
+     * @return true:预热完成 false:已经有预热在执行或预热失败
+     */
+    public boolean warmUp() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            return doWarmUp();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private boolean doWarmUp() {
+        Progress current = new Progress();
+        current.setStartTime(LocalDateTime.now());
+        current.setState(Progress.RUNNING);
+        progress = current;
+        try {
+            warmUpShopTypes(current);
+            warmUpShops(current);
+            warmUpSeckillVouchers(current);
+            current.setState(Progress.DONE);
+            log.warn("缓存预热完成：{}", current);
+            return true;
+        } catch (Exception e) {
+            current.setState(Progress.FAILED);
+            log.error("缓存预热失败：{}", current, e);
+            return false;
+        } finally {
+            current.setEndTime(LocalDateTime.now());
+        }
+    }
+
+    private void warmUpShopTypes(Progress current) {
+        List<ShopType> typeList = shopTypeMapper.selectList(new LambdaQueryWrapper<ShopType>()
+                .orderByAsc(ShopType::getSort));
+        stringRedisTemplate.opsForValue()
+                .set(CACHE_SHOP_TYPE_KEY, JSON.toJSONString(typeList), CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        current.setShopTypes(typeList.size());
+    }
+
+    /**
+     * 写入店铺缓存和按类型划分的 GEO 索引
+     */
+    private void warmUpShops(Progress current) {
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new LambdaQueryWrapper<Shop>()
+                    .gt(Shop::getId, lastId)
+                    .orderByAsc(Shop::getId)
+                    .last("limit " + pageSize));
+            if (shops.isEmpty()) {
+                return;
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            long ttl = TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Shop shop : shops) {
+                    //店铺按逻辑过期读取，写入逻辑过期格式，不设置物理过期时间
+                    LocalDateTime expireTime = now.plusSeconds(jitter(ttl));
+                    stringConnection.set(bytes(CACHE_SHOP_KEY + shop.getId()), cacheCodec.encodeWithExpire(shop, expireTime));
+                    if (shop.getX() != null && shop.getY() != null) {
+                        stringConnection.geoAdd(SHOP_GEO_KEY + shop.getTypeId(),
+                                new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                    }
+                }
+                return null;
+            });
+
+            current.setShops(current.getShops() + shops.size());
+            log.warn("缓存预热进度，店铺：{}", current.getShops());
+            if (shops.size() < pageSize) {
+                return;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 写入未结束的秒杀券元数据。库存计数器不在启动时写入，丢失后需要在下单消息消费完后
+     * 通过 POST /voucher/seckill/stock/{id}/sync 同步，避免按在途订单未落库的数据库库存超卖
+     */
+    private void warmUpSeckillVouchers(Progress current) {
+        long ttl = TimeUnit.MINUTES.toSeconds(VOUCHER_CACHE_TTL);
+        LocalDateTime now = LocalDateTime.now();
+        long lastId = 0;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new LambdaQueryWrapper<SeckillVoucher>()
+                    .gt(SeckillVoucher::getVoucherId, lastId)
+                    .gt(SeckillVoucher::getEndTime, now)
+                    .orderByAsc(SeckillVoucher::getVoucherId)
+                    .last("limit " + pageSize));
+            if (vouchers.isEmpty()) {
+                return;
+            }
+
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (SeckillVoucher voucher : vouchers) {
+                    Long voucherId = voucher.getVoucherId();
+                    //库存不进入元数据缓存
+                    voucher.setStock(null);
+                    stringConnection.setEx(bytes(CACHE_VOUCHER_KEY + voucherId), jitter(ttl), cacheCodec.encode(voucher));
+                }
+                return null;
+            });
+
+            current.setSeckillVouchers(current.getSeckillVouchers() + vouchers.size());
+            log.warn("缓存预热进度，秒杀券：{}", current.getSeckillVouchers());
+            if (vouchers.size() < pageSize) {
+                return;
+            }
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+    }
+
+    /**
+     * 过期时间随机增加 0 ~ ttl * ttlJitterRatio 秒
+     */
+    private long jitter(long ttl) {
+        long bound = (long) (ttl * ttlJitterRatio);
+        return bound <= 0 ? ttl : ttl + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 预热进度
+     */
+    @Data
+    public static class Progress {
+        public static final String IDLE = "IDLE";
+        public static final String RUNNING = "RUNNING";
+        public static final String DONE = "DONE";
+        public static final String FAILED = "FAILED";
+
+        private String state = IDLE;
+        private LocalDateTime startTime;
+        private LocalDateTime endTime;
+        private int shopTypes;
+        private int shops;
+        private int seckillVouchers;
+    }
+}
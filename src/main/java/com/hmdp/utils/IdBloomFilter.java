@@ -0,0 +1,222 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBitSetAsync;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.redisson.misc.Hash;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static com.hmdp.constant.RedisKeyConstant.BLOOM_READY_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOOM_SHOP_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOOM_USER_KEY;
+import static com.hmdp.constant.RedisKeyConstant.BLOOM_VOUCHER_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/13 10:05
+ * @description id 布隆过滤器，查询缓存前先判断 id 是否可能存在，拦截随机 id 造成的缓存穿透
+ * <p>
+ * 布隆过滤器不存在时从数据库全量加载，新增数据时同步加入。加载完成前不做拦截
+ */
+@Slf4j
+@Component
+public class IdBloomFilter {
+    /**
+     * 全量加载时每批查询的数量
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 是否开启布隆过滤器
+     */
+    @Value("${hmdp.bloom.enabled:false}")
+    private Boolean enabled;
+
+    /**
+     * 预计元素数量
+     */
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private Long expectedInsertions;
+
+    /**
+     * 误判率
+     */
+    @Value("${hmdp.bloom.false-probability:0.01}")
+    private Double falseProbability;
+
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 已经加载完成的布隆过滤器
+     */
+    private final Map<String, RBloomFilter<Long>> readyFilters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        load(BLOOM_SHOP_KEY, shopMapper, "id");
+        load(BLOOM_VOUCHER_KEY, seckillVoucherMapper, "voucher_id");
+        load(BLOOM_USER_KEY, userMapper, "id");
+    }
+
+    public boolean mightContainShop(Long id) {
+        return mightContain(BLOOM_SHOP_KEY, id);
+    }
+
+    public void addShop(Long id) {
+        add(BLOOM_SHOP_KEY, id);
+    }
+
+    public boolean mightContainVoucher(Long id) {
+        return mightContain(BLOOM_VOUCHER_KEY, id);
+    }
+
+    public void addVoucher(Long id) {
+        add(BLOOM_VOUCHER_KEY, id);
+    }
+
+    public boolean mightContainUser(Long id) {
+        return mightContain(BLOOM_USER_KEY, id);
+    }
+
+    public void addUser(Long id) {
+        add(BLOOM_USER_KEY, id);
+    }
+
+    private boolean mightContain(String name, Long id) {
+        if (id == null) {
+            return false;
+        }
+        RBloomFilter<Long> filter = readyFilters.get(name);
+        //未开启或未加载完成时不拦截
+        return filter == null || filter.contains(id);
+    }
+
+    private void add(String name, Long id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        //加载过程中新增的数据也需要加入，因此不依赖是否加载完成
+        try {
+            redissonClient.<Long>getBloomFilter(name).add(id);
+        } catch (Exception e) {
+            //布隆过滤器正在重建时可能尚未初始化，重建会从数据库加载到这条数据，不影响业务
+            log.warn("加入布隆过滤器失败：{}，id：{}，原因：{}", name, id, e.getMessage());
+        }
+    }
+
+    /**
+     * 加载布隆过滤器，已经由其他节点加载完成时直接使用
+     */
+    private <T> void load(String name, BaseMapper<T> mapper, String idColumn) {
+        RBloomFilter<Long> filter = redissonClient.getBloomFilter(name);
+        String readyKey = String.format(BLOOM_READY_KEY, name);
+        RLock lock = redissonClient.getLock(name + ":lock");
+        lock.lock();
+        try {
+            if (!redissonClient.getBucket(readyKey).isExists()) {
+                //重新创建，防止上次加载中断留下不完整的数据
+                filter.delete();
+                filter.tryInit(expectedInsertions, falseProbability);
+                long count = loadIds(name, filter, mapper, idColumn);
+                redissonClient.getBucket(readyKey).set("1");
+                log.warn("布隆过滤器加载完成：{}，数量：{}", name, count);
+            }
+            readyFilters.put(name, filter);
+        } catch (Exception e) {
+            //加载失败时不拦截，只影响防穿透效果
+            log.error("布隆过滤器加载失败：{}", name, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按 id 分批从数据库读取全部 id，每批的位通过一次 RBatch 写入，不再每个 id 一次往返
+     */
+    private <T> long loadIds(String name, RBloomFilter<Long> filter, BaseMapper<T> mapper, String idColumn)
+            throws IOException {
+        long count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Long> ids = mapper.selectObjs(new QueryWrapper<T>()
+                            .select(idColumn)
+                            .gt(idColumn, lastId)
+                            .orderByAsc(idColumn)
+                            .last("limit " + LOAD_BATCH_SIZE))
+                    .stream()
+                    .map(id -> ((Number) id).longValue())
+                    .collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                return count;
+            }
+            RBatch batch = redissonClient.createBatch();
+            RBitSetAsync bitSet = batch.getBitSet(name);
+            for (Long id : ids) {
+                for (long index : indexes(filter, id)) {
+                    bitSet.setAsync(index);
+                }
+            }
+            batch.execute();
+            //下标计算与 Redisson 不一致时加载失败，不做拦截，避免把存在的 id 当成不存在
+            if (!filter.contains(ids.get(ids.size() - 1))) {
+                throw new IllegalStateException("布隆过滤器批量写入校验失败：" + name);
+            }
+            count += ids.size();
+            if (ids.size() < LOAD_BATCH_SIZE) {
+                return count;
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+    }
+
+    /**
+     * 计算 id 在位图中的下标，与 RedissonBloomFilter.add 的计算一致：
+     * 按过滤器的编解码器编码后取 128 位 HighwayHash，再用两个 64 位哈希交替累加得到各个下标
+     */
+    private long[] indexes(RBloomFilter<Long> filter, Long id) throws IOException {
+        ByteBuf state = filter.getCodec().getValueEncoder().encode(id);
+        long[] hashes;
+        try {
+            hashes = Hash.hash128(state);
+        } finally {
+            state.release();
+        }
+        int iterations = filter.getHashIterations();
+        long size = filter.getSize();
+        long[] indexes = new long[iterations];
+        long hash = hashes[0];
+        for (int i = 0; i < iterations; i++) {
+            indexes[i] = (hash & Long.MAX_VALUE) % size;
+            hash += i % 2 == 0 ? hashes[1] : hashes[0];
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,16 @@
+package com.hmdp.utils;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/11 10:20
+ * @description 全局唯一 id 生成器
+ */
+public interface IdWorker {
+    /**
+     * 获取id
+     *
+     * @param keyPrefix 业务前缀
+     * @return {@link Long}
+     */
+    Long nextId(String keyPrefix);
+}
@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/15 10:20
+ * @description json 编解码器，与 StringRedisTemplate 写入的 json 字符串兼容
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "json", matchIfMissing = true)
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSON.toJSONBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            return JSON.parseObject(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存 json 解码失败，类型：{}，原因：{}", type.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        return JSON.toJSONBytes(redisData);
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        try {
+            RedisData redisData = JSON.parseObject(bytes, RedisData.class);
+            if (redisData.getData() instanceof JSON) {
+                //直接转换为目标类型，不再经过 BeanUtil 二次转换
+                redisData.setData(JSON.toJavaObject((JSON) redisData.getData(), type));
+            }
+            return redisData;
+        } catch (RuntimeException e) {
+            log.warn("缓存 json 解码失败，类型：{}，原因：{}", type.getName(), e.getMessage());
+            return null;
+        }
+    }
+}
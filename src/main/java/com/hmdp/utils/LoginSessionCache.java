@@ -0,0 +1,169 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.constant.RedisKeyConstant.LOGIN_LOGOUT_CHANNEL;
+import static com.hmdp.constant.RedisKeyConstant.LOGIN_USER_TOKENS_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/18 10:30
+ * @description 登录会话本地缓存，token 对应的用户信息在本地短时间缓存，只有剩余有效期低于阈值时才续期，
+ * 稳定状态下已登录的请求不访问 redis。退出登录时通过 redis 发布订阅清除各节点的缓存
+ */
+@Component
+public class LoginSessionCache {
+    /**
+     * 是否开启本地缓存
+     */
+    @Value("${hmdp.login.local.enabled:true}")
+    private Boolean enabled;
+
+    /**
+     * 本地缓存最大条数
+     */
+    @Value("${hmdp.login.local.maximum-size:100000}")
+    private Long maximumSize;
+
+    /**
+     * 本地缓存过期时间，单位：秒
+     */
+    @Value("${hmdp.login.local.ttl:60}")
+    private Long ttl;
+
+    /**
+     * 剩余有效期低于 LOGIN_USER_TTL 的该比例时续期
+     */
+    @Value("${hmdp.login.renew-ratio:0.9}")
+    private Double renewRatio;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private Cache<String, Session> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 获取 token 对应的用户，必要时续期
+     *
+     * @return token 无效时返回 null
+     */
+    public UserDTO getUser(String token) {
+        long now = System.currentTimeMillis();
+        Session session = enabled ? cache.getIfPresent(token) : null;
+        if (session == null) {
+            session = load(token, now);
+            if (session == null) {
+                return null;
+            }
+            if (enabled) {
+                cache.put(token, session);
+            }
+        }
+
+        renewIfNeeded(token, session, now);
+        return session.user;
+    }
+
+    /**
+     * 清除当前节点的本地缓存
+     */
+    public void invalidate(String token) {
+        cache.invalidate(token);
+    }
+
+    /**
+     * 通知所有节点清除本地缓存，退出登录时调用
+     */
+    public void publishInvalidate(String token) {
+        stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+    }
+
+    /**
+     * 一次往返读取用户信息和剩余有效期
+     */
+    @SuppressWarnings("unchecked")
+    private Session load(String token, long now) {
+        String key = LOGIN_USER_KEY + token;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.hGetAll(key);
+            stringConnection.pTtl(key);
+            return null;
+        });
+        Map<Object, Object> userMap = (Map<Object, Object>) results.get(0);
+        if (userMap == null || userMap.isEmpty()) {
+            return null;
+        }
+
+        //hash转UserDTO
+        UserDTO user = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+        Long pttl = (Long) results.get(1);
+        //没有过期时间时立即续期
+        long expireAt = pttl != null && pttl >= 0 ? now + pttl : now;
+        return new Session(user, expireAt);
+    }
+
+    /**
+     * token续命，剩余有效期充足时跳过
+     * <p>
+     * 同时刷新用户 token 索引中的过期时间和索引的过期时间，否则续期后仍然有效的 token
+     * 会在下次登录时按原过期时间被清理出索引，或随索引一起过期，退出所有设备时漏掉
+     */
+    private void renewIfNeeded(String token, Session session, long now) {
+        long ttlMillis = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        long expireAt = session.expireAt.get();
+        if (expireAt - now >= ttlMillis * renewRatio) {
+            return;
+        }
+        //同一个 token 并发请求时只续期一次
+        if (session.expireAt.compareAndSet(expireAt, now + ttlMillis)) {
+            String indexKey = String.format(LOGIN_USER_TOKENS_KEY, session.user.getId());
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                stringConnection.pExpire(LOGIN_USER_KEY + token, ttlMillis);
+                stringConnection.zAdd(indexKey, now + ttlMillis, token);
+                //索引中其他 token 的过期时间都不晚于 now + ttl
+                stringConnection.pExpire(indexKey, ttlMillis);
+                return null;
+            });
+        }
+    }
+
+    private static class Session {
+        private final UserDTO user;
+        /**
+         * redis 中 token 的过期时间，本地估算
+         */
+        private final AtomicLong expireAt;
+
+        private Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = new AtomicLong(expireAt);
+        }
+    }
+}
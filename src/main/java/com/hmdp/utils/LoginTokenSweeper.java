@@ -0,0 +1,157 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.constant.RedisKeyConstant.LOGIN_SWEEP_LOCK_KEY;
+import static com.hmdp.constant.RedisKeyConstant.LOGIN_USER_TOKENS_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/19 15:10
+ * @description 登录 token 清理任务，用 SCAN 分批遍历 login:token:*，回收没有过期时间的孤儿 hash
+ * <p>
+ * 没有过期时间的 hash 来自写入中途失败等情况，永远不会过期。token 仍在用户索引中时按索引中的过期时间补上过期时间，
+ * 不在索引中时直接删除。每批只对孤儿 hash 额外访问 redis，正常 token 每批只有一次管道往返
+ */
+@Slf4j
+@Component
+public class LoginTokenSweeper {
+    /**
+     * 是否开启清理
+     */
+    @Value("${hmdp.login.sweep.enabled:true}")
+    private Boolean enabled;
+
+    /**
+     * 每批 SCAN 的数量
+     */
+    @Value("${hmdp.login.sweep.batch-size:1000}")
+    private Integer batchSize;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 定时清理，同一时间只有一个节点执行
+     */
+    @Scheduled(cron = "${hmdp.login.sweep.cron:0 0 4 * * ?}")
+    public void scheduledSweep() {
+        if (!enabled) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOGIN_SWEEP_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            sweep();
+        } catch (Exception e) {
+            log.error("清理登录 token 失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 执行一次清理
+     *
+     * @return 回收的孤儿 hash 数量
+     */
+    public long sweep() {
+        long scanned = 0;
+        long reclaimed = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(LOGIN_USER_KEY + "*").count(batchSize).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            List<String> batch = new ArrayList<>(batchSize);
+            while (cursor != null && cursor.hasNext()) {
+                batch.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (batch.size() >= batchSize) {
+                    scanned += batch.size();
+                    reclaimed += sweepBatch(batch);
+                    batch.clear();
+                }
+            }
+            scanned += batch.size();
+            reclaimed += sweepBatch(batch);
+        } catch (IOException e) {
+            //游标关闭失败不影响已经完成的清理
+            log.warn("关闭 SCAN 游标失败：{}", e.getMessage());
+        }
+        log.warn("清理登录 token 完成，扫描：{}，回收：{}", scanned, reclaimed);
+        return reclaimed;
+    }
+
+    private long sweepBatch(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        //批量查询剩余有效期
+        List<Object> ttls = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            keys.forEach(stringConnection::ttl);
+            return null;
+        });
+        List<String> orphans = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Long ttl = (Long) ttls.get(i);
+            if (ttl != null && ttl == -1) {
+                orphans.add(keys.get(i));
+            }
+        }
+        if (orphans.isEmpty()) {
+            return 0;
+        }
+
+        //查询孤儿 hash 所属用户
+        List<Object> userIds = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            orphans.forEach(key -> stringConnection.hGet(key, "id"));
+            return null;
+        });
+        //查询 token 在用户索引中的过期时间
+        List<Object> expireAts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < orphans.size(); i++) {
+                Object userId = userIds.get(i);
+                String token = orphans.get(i).substring(LOGIN_USER_KEY.length());
+                stringConnection.zScore(String.format(LOGIN_USER_TOKENS_KEY, userId), token);
+            }
+            return null;
+        });
+
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < orphans.size(); i++) {
+                Double expireAt = (Double) expireAts.get(i);
+                if (userIds.get(i) != null && expireAt != null && expireAt > now) {
+                    stringConnection.pExpire(orphans.get(i), expireAt.longValue() - now);
+                } else {
+                    stringConnection.del(orphans.get(i));
+                }
+            }
+            return null;
+        });
+        return orphans.size();
+    }
+}
@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/20 10:30
+ * @description 滑动窗口限流器，窗口计数由 lua 脚本在 redis 中原子完成，多个节点共享
+ * <p>
+ * 本地预过滤：每个节点记录自己在当前固定窗口内放行的次数，这些请求都已计入 redis 的滑动窗口，
+ * 本地放行次数达到上限时 redis 必然也会拒绝，直接在本地拒绝，洪峰请求不访问 redis
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("lua/rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 是否开启限流
+     */
+    @Value("${hmdp.rate-limit.enabled:true}")
+    private Boolean enabled;
+
+    /**
+     * 本地预过滤最多记录的 key 数量
+     */
+    @Value("${hmdp.rate-limit.local.maximum-size:100000}")
+    private Long maximumSize;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private Cache<String, LocalWindow> localWindows;
+
+    @PostConstruct
+    public void init() {
+        localWindows = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 尝试获取一次请求许可，多个限流 key 都有许可时才放行并一起记录，被拒绝的请求不占用任何 key 的许可
+     *
+     * @param keys    限流 key
+     * @param permits 各 key 窗口内允许的请求数
+     * @param windows 各 key 的窗口大小，单位：毫秒
+     * @return true:放行 false:拒绝
+     */
+    public boolean tryAcquire(List<String> keys, int[] permits, long[] windows) {
+        if (!enabled || keys.isEmpty()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        List<LocalWindow> windowList = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            LocalWindow localWindow;
+            try {
+                localWindow = localWindows.get(keys.get(i), LocalWindow::new);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+            if (localWindow.isFull(now, windows[i], permits[i])) {
+                return false;
+            }
+            windowList.add(localWindow);
+        }
+
+        String[] args = new String[2 + keys.size() * 2];
+        args[0] = String.valueOf(now);
+        args[1] = IdUtil.fastSimpleUUID();
+        for (int i = 0; i < keys.size(); i++) {
+            args[2 + i * 2] = String.valueOf(windows[i]);
+            args[3 + i * 2] = String.valueOf(permits[i]);
+        }
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, (Object[]) args);
+        } catch (Exception e) {
+            //redis 不可用时放行，限流失效不影响业务
+            log.error("限流脚本执行失败，key：{}", keys, e);
+            return true;
+        }
+        if (result != null && result == 1L) {
+            windowList.forEach(LocalWindow::admit);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 本节点在固定窗口内放行的次数
+     */
+    private static class LocalWindow {
+        private long start;
+        private int admitted;
+
+        private synchronized boolean isFull(long now, long window, int permits) {
+            if (now - start >= window) {
+                start = now;
+                admitted = 0;
+            }
+            return admitted >= permits;
+        }
+
+        private synchronized void admit() {
+            admitted++;
+        }
+    }
+}
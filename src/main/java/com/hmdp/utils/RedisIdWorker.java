@@ -1,53 +1,222 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * redis ID生成器
+ * <p>
+ * 开启号段模式时，每个节点通过一次 INCRBY 预占一段序列号，在本地用 AtomicLong 分配，
+ * 当前号段消耗到一定比例时异步预取下一个号段，redis 访问次数降低为原来的 1/号段大小
  *
  * @author CHEN
  * @date 2022/10/09
  */
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdWorker {
     /**
      * 初始时间戳
      */
-    private static final Long BEGIN_TIMESTAMP = 1699105781L;
+    public static final Long BEGIN_TIMESTAMP = 1699105781L;
     /**
      * 序列号位数
      */
     private static final Integer COUNT_BITS = 32;
+    /**
+     * 一天的秒数
+     */
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    /**
+     * 剩余序列号低于号段大小的该比例时，预取下一个号段
+     */
+    private static final double PREFETCH_RATIO = 0.2;
+
+    /**
+     * 是否开启号段模式
+     */
+    @Value("${hmdp.id.segment.enabled:false}")
+    private Boolean segmentEnabled;
+
+    /**
+     * 号段大小
+     */
+    @Value("${hmdp.id.segment.size:1000}")
+    private Integer segmentSize;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 当前日期，跨天时才重新格式化
+     */
+    private volatile Day currentDay = new Day(Long.MIN_VALUE, null);
+
+    /**
+     * 各业务的号段缓冲，key 为业务前缀
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
     /**
      * 获取id
      *
      * @param keyPrefix 业务前缀
      * @return {@link Long}
      */
+    @Override
     public Long nextId(String keyPrefix) {
         //生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
         //生成序列号
         //生成当前日期 精确到天
-        String today = now.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        //自增长
-        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + today);
+        String today = today(nowSecond);
+        long count = segmentEnabled
+                ? nextSequence(keyPrefix, today)
+                //自增长
+                : stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, today));
 
         //拼接并返回
         return timestamp << COUNT_BITS | count;
     }
 
+    /**
+     * 从本地号段中分配序列号
+     */
+    private long nextSequence(String keyPrefix, String today) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.day.equals(today)) {
+                long sequence = segment.cursor.getAndIncrement();
+                if (sequence <= segment.max) {
+                    if (segment.max - sequence < segmentSize * PREFETCH_RATIO) {
+                        prefetch(buffer, segment);
+                    }
+                    return sequence;
+                }
+            }
+            switchSegment(buffer, segment, today);
+        }
+    }
+
+    /**
+     * 当前号段用尽或跨天时切换号段，优先使用已经预取好的号段
+     */
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, String today) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                //其他线程已经切换过
+                return;
+            }
+            Segment next = buffer.next;
+            buffer.next = null;
+            buffer.current = next != null && next.day.equals(today) ? next : loadSegment(buffer.keyPrefix, today);
+        }
+    }
+
+    /**
+     * 异步预取下一个号段，同一时间每个业务最多只有一个预取任务
+     */
+    private void prefetch(SegmentBuffer buffer, Segment current) {
+        if (buffer.next != null || !buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                Segment next = loadSegment(buffer.keyPrefix, current.day);
+                synchronized (buffer) {
+                    if (buffer.current == current && buffer.next == null) {
+                        buffer.next = next;
+                    }
+                }
+            } catch (Exception e) {
+                //预取失败不影响当前号段，用尽时会同步加载
+                log.error("预取id号段失败，业务前缀：{}", buffer.keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    /**
+     * 通过 INCRBY 预占一段序列号
+     */
+    private Segment loadSegment(String keyPrefix, String day) {
+        Long max = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, day), segmentSize);
+        if (max == null) {
+            throw new IllegalStateException("获取id号段失败，业务前缀：" + keyPrefix);
+        }
+        return new Segment(day, max - segmentSize + 1, max);
+    }
+
+    private String today(long nowSecond) {
+        long epochDay = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        Day day = currentDay;
+        if (day.epochDay != epochDay) {
+            day = new Day(epochDay, LocalDate.ofEpochDay(epochDay).format(DateTimeFormatter.BASIC_ISO_DATE));
+            currentDay = day;
+        }
+        return day.formatted;
+    }
+
+    private String counterKey(String keyPrefix, String day) {
+        return "icr:" + keyPrefix + ":" + day;
+    }
+
+    private static class Day {
+        private final long epochDay;
+        /**
+         * yyyyMMdd
+         */
+        private final String formatted;
+
+        private Day(long epochDay, String formatted) {
+            this.epochDay = epochDay;
+            this.formatted = formatted;
+        }
+    }
+
+    /**
+     * 号段，序列号范围 [cursor 初始值, max]
+     */
+    private static class Segment {
+        private final String day;
+        private final AtomicLong cursor;
+        private final long max;
+
+        private Segment(String day, long min, long max) {
+            this.day = day;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 双缓冲：当前号段和预取的下一个号段
+     */
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        private final AtomicBoolean loading = new AtomicBoolean();
+        private volatile Segment current;
+        private volatile Segment next;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hmdp.entity.SeckillVoucher;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.constant.RedisKeyConstant.SECKILL_STOCK_CHANNEL;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/6 14:35
+ * @description 秒杀本地缓存，缓存优惠券元数据和售罄标记，售罄或不在时间窗口内的请求无需访问 redis
+ */
+@Component
+public class SeckillLocalCache {
+    /**
+     * 优惠券元数据，只读信息，短时间过期兜底
+     */
+    private final Cache<Long, SeckillVoucher> voucherCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 售罄标记，补充库存时通过 redis 发布订阅清除；过期后重新以 redis 库存为准，防止丢失通知
+     */
+    private final Cache<Long, Boolean> soldOutCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    public SeckillVoucher getVoucher(Long voucherId) {
+        return voucherCache.getIfPresent(voucherId);
+    }
+
+    public void putVoucher(SeckillVoucher voucher) {
+        voucherCache.put(voucher.getVoucherId(), voucher);
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOutCache.getIfPresent(voucherId) != null;
+    }
+
+    public void markSoldOut(Long voucherId) {
+        soldOutCache.put(voucherId, Boolean.TRUE);
+    }
+
+    /**
+     * 清除当前节点的本地缓存
+     */
+    public void invalidate(Long voucherId) {
+        voucherCache.invalidate(voucherId);
+        soldOutCache.invalidate(voucherId);
+    }
+
+    /**
+     * 通知所有节点清除本地缓存，库存发生补充时调用
+     */
+    public void publishInvalidate(Long voucherId) {
+        stringRedisTemplate.convertAndSend(SECKILL_STOCK_CHANNEL, voucherId.toString());
+    }
+}
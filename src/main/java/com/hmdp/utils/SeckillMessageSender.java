@@ -0,0 +1,196 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.SeckillMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.config.RabbitConfig.SECKILL_QUEUE;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/8 11:05
+ * @description 秒杀消息发送器，开启发布确认，被 broker 拒绝或确认超时的消息放入本地缓冲区重发
+ */
+@Slf4j
+@Component
+public class SeckillMessageSender {
+    /**
+     * 最大发送次数
+     */
+    @Value("${hmdp.seckill.mq.max-send-attempts:3}")
+    private Integer maxSendAttempts;
+
+    /**
+     * 等待发布确认的超时时间，单位：毫秒
+     */
+    @Value("${hmdp.seckill.mq.confirm-timeout:10000}")
+    private Long confirmTimeout;
+
+    /**
+     * 重发缓冲区的最大容量
+     */
+    @Value("${hmdp.seckill.mq.retry-buffer-size:10000}")
+    private Integer retryBufferSize;
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+    @Resource
+    private SeckillScriptExecutor seckillScriptExecutor;
+    @Resource
+    private SeckillLocalCache seckillLocalCache;
+
+    /**
+     * 已发送、等待确认的消息，key 为 correlationId
+     */
+    private final Map<String, PendingMessage> pendingMessages = new ConcurrentHashMap<>();
+
+    /**
+     * 待重发的消息
+     */
+    private final Queue<PendingMessage> retryBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retryBufferCount = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        rabbitTemplate.setConfirmCallback(this::confirm);
+    }
+
+    /**
+     * 发送秒杀消息，同步发送失败时直接抛出异常，由调用方回滚秒杀资格
+     */
+    public void send(SeckillMessage message) {
+        doSend(new PendingMessage(message));
+    }
+
+    /**
+     * 当前等待确认和待重发的消息数
+     */
+    public int getPendingCount() {
+        return pendingMessages.size() + retryBufferCount.get();
+    }
+
+    private void doSend(PendingMessage pending) {
+        int attempt = pending.attempts.incrementAndGet();
+        String correlationId = pending.message.getOrderId() + ":" + attempt;
+        pending.sendTime = System.currentTimeMillis();
+        pendingMessages.put(correlationId, pending);
+        try {
+            rabbitTemplate.convertAndSend("", SECKILL_QUEUE, pending.message, new CorrelationData(correlationId));
+        } catch (AmqpException e) {
+            pendingMessages.remove(correlationId);
+            throw e;
+        }
+    }
+
+    /**
+     * 发布确认回调
+     */
+    private void confirm(CorrelationData correlationData, boolean ack, String cause) {
+        if (correlationData == null || correlationData.getId() == null) {
+            return;
+        }
+        PendingMessage pending = pendingMessages.remove(correlationData.getId());
+        if (pending == null || ack) {
+            return;
+        }
+
+        log.warn("秒杀消息被 broker 拒绝，订单id：{}，原因：{}", pending.message.getOrderId(), cause);
+        offerRetry(pending);
+    }
+
+    /**
+     * 重发被拒绝和确认超时的消息
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.mq.retry-interval:1000}")
+    public void resend() {
+        //确认超时的消息，无法确定是否投递成功，重新发送，由消费端保证幂等
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, PendingMessage>> iterator = pendingMessages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PendingMessage pending = iterator.next().getValue();
+            if (now - pending.sendTime > confirmTimeout) {
+                iterator.remove();
+                log.warn("秒杀消息确认超时，订单id：{}", pending.message.getOrderId());
+                //这次发送可能已经进入队列，之后的发送结果无法改变这一点
+                pending.deliveryUnknown = true;
+                offerRetry(pending);
+            }
+        }
+
+        int size = retryBufferCount.get();
+        for (int i = 0; i < size; i++) {
+            PendingMessage pending = retryBuffer.poll();
+            if (pending == null) {
+                break;
+            }
+            retryBufferCount.decrementAndGet();
+            if (pending.attempts.get() >= maxSendAttempts) {
+                giveUp(pending);
+                continue;
+            }
+            try {
+                doSend(pending);
+            } catch (AmqpException e) {
+                log.warn("秒杀消息重发失败，订单id：{}，原因：{}", pending.message.getOrderId(), e.getMessage());
+                offerRetry(pending);
+            }
+        }
+    }
+
+    private void offerRetry(PendingMessage pending) {
+        if (retryBufferCount.get() >= retryBufferSize) {
+            giveUp(pending);
+            return;
+        }
+        retryBuffer.offer(pending);
+        retryBufferCount.incrementAndGet();
+    }
+
+    /**
+     * 放弃发送。每次发送都明确未投递成功时才归还秒杀资格，任意一次确认超时都只记录日志，人工核对，
+     * 否则超时的那次投递仍可能被消费落库，归还的名额会造成超卖
+     */
+    private void giveUp(PendingMessage pending) {
+        SeckillMessage message = pending.message;
+        if (pending.deliveryUnknown) {
+            //飞书群消息警告，人工干预
+            log.error("秒杀消息投递结果未知，订单id：{}，用户id：{}，优惠券id：{}",
+                    message.getOrderId(), message.getUserId(), message.getVoucherId());
+            return;
+        }
+
+        log.error("秒杀消息发送失败，归还秒杀资格，订单id：{}，用户id：{}，优惠券id：{}",
+                message.getOrderId(), message.getUserId(), message.getVoucherId());
+        if (seckillScriptExecutor.rollback(message.getVoucherId(), message.getUserId())) {
+            seckillLocalCache.publishInvalidate(message.getVoucherId());
+        }
+    }
+
+    private static class PendingMessage {
+        private final SeckillMessage message;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private volatile long sendTime;
+        /**
+         * 是否有任意一次发送确认超时，一旦为 true 不再重置
+         */
+        private volatile boolean deliveryUnknown;
+
+        private PendingMessage(SeckillMessage message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.constant.RedisKeyConstant.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/5 10:12
+ * @description 秒杀 lua 脚本执行器，一次往返完成秒杀资格的判断与库存扣减
+ */
+@Component
+public class SeckillScriptExecutor {
+    /**
+     * 秒杀成功
+     */
+    public static final long SUCCESS = 0L;
+    /**
+     * 库存不足
+     */
+    public static final long STOCK_NOT_ENOUGH = 1L;
+    /**
+     * 重复下单
+     */
+    public static final long REPEAT_ORDER = 2L;
+    /**
+     * 秒杀尚未开始
+     */
+    public static final long NOT_STARTED = 3L;
+    /**
+     * 秒杀已经结束
+     */
+    public static final long ENDED = 4L;
+    /**
+     * 库存未初始化
+     */
+    public static final long STOCK_NOT_INIT = 5L;
+
+    /**
+     * 脚本在类加载时读取并计算 sha1，执行时优先走 EVALSHA，脚本未缓存时自动回退为 EVAL
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> ROLLBACK_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_SYNC_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+
+        ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        ROLLBACK_SCRIPT.setLocation(new ClassPathResource("lua/seckill_rollback.lua"));
+        ROLLBACK_SCRIPT.setResultType(Long.class);
+
+        STOCK_ADD_SCRIPT = new DefaultRedisScript<>();
+        STOCK_ADD_SCRIPT.setLocation(new ClassPathResource("lua/seckill_stock_add.lua"));
+        STOCK_ADD_SCRIPT.setResultType(Long.class);
+
+        STOCK_SYNC_SCRIPT = new DefaultRedisScript<>();
+        STOCK_SYNC_SCRIPT.setLocation(new ClassPathResource("lua/seckill_stock_sync.lua"));
+        STOCK_SYNC_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 尝试获取秒杀资格
+     *
+     * @param voucherId 优惠券id
+     * @param userId    用户id
+     * @param beginTime 秒杀开始时间
+     * @param endTime   秒杀结束时间
+     * @return 脚本返回的状态码，参见本类中的常量
+     */
+    public long tryAcquire(Long voucherId, Long userId, LocalDateTime beginTime, LocalDateTime endTime) {
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                keys(voucherId),
+                userId.toString(),
+                String.valueOf(System.currentTimeMillis()),
+                String.valueOf(toEpochMilli(beginTime)),
+                String.valueOf(toEpochMilli(endTime)));
+        return result == null ? STOCK_NOT_INIT : result;
+    }
+
+    /**
+     * 归还秒杀资格，用于下单消息发送失败的场景
+     *
+     * @return true:归还成功 false:该用户没有占用名额
+     */
+    public boolean rollback(Long voucherId, Long userId) {
+        Long result = stringRedisTemplate.execute(ROLLBACK_SCRIPT, keys(voucherId), userId.toString());
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 重新同步库存，已经存在时不覆盖
+     * <p>
+     * 数据库库存落后于 MQ 中尚未消费的订单，直接用数据库库存初始化会超卖，
+     * 因此扣除已下单用户集合中尚未落库的数量。需要在下单消息消费完后执行，集合也丢失时无法感知在途订单
+     *
+     * @param dbStock      数据库库存
+     * @param dbOrderCount 数据库中该券的订单数
+     * @return 同步后的库存，库存已经存在时返回 -1
+     */
+    public long syncStock(Long voucherId, Integer dbStock, long dbOrderCount) {
+        Long result = stringRedisTemplate.execute(STOCK_SYNC_SCRIPT,
+                keys(voucherId),
+                String.valueOf(dbStock),
+                String.valueOf(dbOrderCount));
+        return result == null ? -1L : result;
+    }
+
+    /**
+     * 重置库存，用于新增秒杀券
+     */
+    public void resetStock(Long voucherId, Integer stock) {
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+    }
+
+    /**
+     * 补充库存，库存未初始化时不做处理
+     *
+     * @return 补充后的库存，库存未初始化时返回 -1
+     */
+    public long addStock(Long voucherId, Integer count) {
+        Long result = stringRedisTemplate.execute(STOCK_ADD_SCRIPT,
+                Collections.singletonList(SECKILL_STOCK_KEY + voucherId),
+                String.valueOf(count));
+        return result == null ? -1L : result;
+    }
+
+    private List<String> keys(Long voucherId) {
+        return Collections.unmodifiableList(Arrays.asList(
+                SECKILL_STOCK_KEY + voucherId,
+                String.format(SECKILL_ORDER_KEY, voucherId)));
+    }
+
+    private long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
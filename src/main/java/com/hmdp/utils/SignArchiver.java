@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.constant.RedisKeyConstant.SIGN_ARCHIVE_LOCK_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/21 14:00
+ * @description 签到归档任务，每月初用 SCAN 分批读取上个月的签到位图，多行插入 tb_sign 后给位图设置过期时间，
+ * redis 中只保留近期的签到数据，历史查询由 {@link com.hmdp.service.impl.UserServiceImpl} 回退到归档表
+ * <p>
+ * 插入时忽略已经归档的日期，任务中断后可以重复执行
+ */
+@Slf4j
+@Component
+public class SignArchiver {
+    /**
+     * 每条多行插入语句的最大行数
+     */
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    /**
+     * 是否开启归档
+     */
+    @Value("${hmdp.sign.archive.enabled:true}")
+    private Boolean enabled;
+
+    /**
+     * 每批 SCAN 的数量
+     */
+    @Value("${hmdp.sign.archive.batch-size:500}")
+    private Integer batchSize;
+
+    /**
+     * 归档后位图在 redis 中保留的天数，月初的跨月连续签到统计仍然读 redis
+     */
+    @Value("${hmdp.sign.archive.retain-days:7}")
+    private Long retainDays;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SignMapper signMapper;
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 每月初归档上个月的签到，同一时间只有一个节点执行
+     */
+    @Scheduled(cron = "${hmdp.sign.archive.cron:0 30 3 1 * ?}")
+    public void scheduledArchive() {
+        if (!enabled) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(SIGN_ARCHIVE_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            archive(YearMonth.now().minusMonths(1));
+        } catch (Exception e) {
+            log.error("签到归档失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归档指定月份的签到位图
+     *
+     * @return 归档的签到记录数
+     */
+    public long archive(YearMonth month) {
+        String prefix = SignBitmaps.keyPrefix(month);
+        long bitmaps = 0;
+        long signs = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(batchSize).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            List<String> batch = new ArrayList<>(batchSize);
+            while (cursor != null && cursor.hasNext()) {
+                batch.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (batch.size() >= batchSize) {
+                    bitmaps += batch.size();
+                    signs += archiveBatch(month, prefix, batch);
+                    batch.clear();
+                }
+            }
+            bitmaps += batch.size();
+            signs += archiveBatch(month, prefix, batch);
+        } catch (IOException e) {
+            //游标关闭失败不影响已经完成的归档
+            log.warn("关闭 SCAN 游标失败：{}", e.getMessage());
+        }
+        log.info("签到归档完成，月份：{}，位图：{}，签到记录：{}", month, bitmaps, signs);
+        return signs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private long archiveBatch(YearMonth month, String prefix, List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        int days = month.lengthOfMonth();
+        BitFieldSubCommands command = BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(days))
+                .valueAt(0);
+        //一次往返读取整批位图
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            keys.forEach(key -> stringConnection.bitfield(key, command));
+            return null;
+        });
+
+        List<Sign> signs = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Long userId = parseUserId(keys.get(i), prefix);
+            List<Long> result = (List<Long>) results.get(i);
+            if (userId == null || result == null || result.isEmpty() || result.get(0) == null) {
+                continue;
+            }
+            long bits = result.get(0);
+            for (int day = 1; day <= days; day++) {
+                if (SignBitmaps.isSigned(bits, days, day)) {
+                    signs.add(new Sign()
+                            .setUserId(userId)
+                            .setYear(month.getYear())
+                            .setMonth(month.getMonthValue())
+                            .setDate(month.atDay(day))
+                            .setIsBackup(false));
+                }
+            }
+        }
+        for (int from = 0; from < signs.size(); from += INSERT_BATCH_SIZE) {
+            signMapper.insertIgnoreBatch(signs.subList(from, Math.min(from + INSERT_BATCH_SIZE, signs.size())));
+        }
+
+        //落库之后才设置过期时间
+        long ttl = TimeUnit.DAYS.toSeconds(retainDays);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            keys.forEach(key -> stringConnection.expire(key, ttl));
+            return null;
+        });
+        return signs.size();
+    }
+
+    private Long parseUserId(String key, String prefix) {
+        try {
+            return Long.valueOf(key.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的签到位图 key：{}", key);
+            return null;
+        }
+    }
+}
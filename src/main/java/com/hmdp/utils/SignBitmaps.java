@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import java.time.YearMonth;
+import java.util.Collection;
+import java.time.format.DateTimeFormatter;
+
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/21 9:30
+ * @description 签到位图工具，每个用户每月一个位图，第 n 天对应偏移量 n - 1。
+ * 用 BITFIELD GET u{天数} 0 读出的无符号整数中，当天位于最低位
+ */
+public class SignBitmaps {
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:");
+
+    private SignBitmaps() {
+    }
+
+    /**
+     * 签到位图 key：sign:yyyy:MM:用户id
+     */
+    public static String key(Long userId, YearMonth month) {
+        return keyPrefix(month) + userId;
+    }
+
+    /**
+     * 某个月所有用户签到位图 key 的公共前缀：sign:yyyy:MM:
+     */
+    public static String keyPrefix(YearMonth month) {
+        return USER_SIGN_KEY + month.format(MONTH_FORMATTER);
+    }
+
+    /**
+     * 按签到日期构造前 days 天的位图，与 BITFIELD GET u{days} 0 的结果一致
+     *
+     * @param signedDays 签到的日期，本月的第几天
+     */
+    public static long bitsOf(Collection<Integer> signedDays, int days) {
+        long bits = 0;
+        for (int day : signedDays) {
+            if (day >= 1 && day <= days) {
+                bits |= 1L << (days - day);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * 第 day 天是否签到
+     *
+     * @param bits BITFIELD GET u{days} 0 的结果
+     */
+    public static boolean isSigned(long bits, int days, int day) {
+        return (bits >>> (days - day) & 1) == 1;
+    }
+
+    /**
+     * 从最低位开始连续为 1 的位数，即截至当天的连续签到天数。
+     * 取反后统计末尾 0 的个数，高位补 0 保证结果不超过读取的位数
+     */
+    public static int trailingOnes(long bits) {
+        return Long.numberOfTrailingZeros(~bits);
+    }
+}
@@ -0,0 +1,288 @@
+package com.hmdp.utils;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.constant.RedisKeyConstant.LOGIN_REVOKED_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/19 9:40
+ * @description 无状态登录令牌，令牌中携带用户信息和过期时间，使用 HMAC-SHA256 签名，在本地完成校验
+ * <p>
+ * 令牌格式：base64url(载荷).base64url(签名)，载荷为 版本号 | 用户id | 过期时间 | 令牌id | 昵称 | 头像。
+ * 令牌无法在服务端删除，退出登录时把令牌id写入 redis 吊销列表，并放入本地布隆过滤器，
+ * 只有布隆过滤器命中时才访问 redis 确认，正常请求不访问 redis
+ */
+@Slf4j
+@Component
+public class SignedTokenService {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final char SEPARATOR = '.';
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * 登录模式，redis：令牌对应的用户信息保存在 redis，stateless：签发无状态令牌
+     */
+    @Value("${hmdp.login.mode:redis}")
+    private String mode;
+
+    /**
+     * 签名密钥，配置后即可校验无状态令牌，切回 redis 模式时已签发的令牌仍然有效
+     */
+    @Value("${hmdp.login.token-secret:}")
+    private String secret;
+
+    /**
+     * 吊销列表布隆过滤器预计元素数量
+     */
+    @Value("${hmdp.login.revocation.expected-insertions:100000}")
+    private Long expectedInsertions;
+
+    /**
+     * 吊销列表布隆过滤器误判率
+     */
+    @Value("${hmdp.login.revocation.false-probability:0.001}")
+    private Double falseProbability;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private SecretKeySpec key;
+
+    /**
+     * Mac 不是线程安全的，每个线程复用一个
+     */
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    /**
+     * 已吊销令牌id的布隆过滤器，定时从 redis 重建
+     */
+    private volatile BloomFilter<CharSequence> revoked;
+
+    @PostConstruct
+    public void init() {
+        if (StringUtils.hasText(secret)) {
+            key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+            newMac();
+        } else if (isEnabled()) {
+            throw new IllegalStateException("无状态登录模式需要配置 hmdp.login.token-secret");
+        }
+        revoked = newBloomFilter();
+        refreshRevoked();
+    }
+
+    /**
+     * 是否签发无状态令牌
+     */
+    public boolean isEnabled() {
+        return "stateless".equals(mode);
+    }
+
+    /**
+     * 是否为无状态令牌，redis 模式的 uuid 令牌不包含分隔符
+     */
+    public static boolean isSignedToken(String token) {
+        return token.indexOf(SEPARATOR) > 0;
+    }
+
+    /**
+     * 签发令牌，有效期与 redis 模式相同
+     */
+    public String issue(UserDTO user) {
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        long tokenId = ThreadLocalRandom.current().nextLong();
+        byte[] payload = encode(user, expireAt, tokenId);
+        return ENCODER.encodeToString(payload) + SEPARATOR + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * 校验令牌
+     *
+     * @return 签名错误、过期或已吊销时返回 null
+     */
+    public UserDTO verify(String token) {
+        if (key == null) {
+            return null;
+        }
+        Token parsed = parse(token);
+        if (parsed == null
+                || !MessageDigest.isEqual(sign(parsed.payload), parsed.signature)
+                || parsed.expireAt <= System.currentTimeMillis()
+                || isRevoked(parsed.tokenId)) {
+            return null;
+        }
+        return parsed.user;
+    }
+
+    /**
+     * 吊销令牌，写入 redis 吊销列表，吊销记录保留到令牌过期
+     */
+    public void revoke(String token) {
+        Token parsed = parse(token);
+        if (parsed == null || key == null || !MessageDigest.isEqual(sign(parsed.payload), parsed.signature)) {
+            return;
+        }
+        String tokenId = String.valueOf(parsed.tokenId);
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, tokenId, parsed.expireAt);
+        revoked.put(tokenId);
+    }
+
+    /**
+     * 其他节点吊销了令牌，加入本地布隆过滤器
+     */
+    public void onRevoked(String token) {
+        Token parsed = parse(token);
+        if (parsed != null) {
+            revoked.put(String.valueOf(parsed.tokenId));
+        }
+    }
+
+    /**
+     * 定时清理过期的吊销记录并重建布隆过滤器，同时弥补丢失的吊销通知
+     */
+    @Scheduled(fixedDelayString = "${hmdp.login.revocation.refresh-interval:60000}")
+    public void refreshRevoked() {
+        if (key == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, System.currentTimeMillis());
+            Set<String> tokenIds = stringRedisTemplate.opsForZSet().range(LOGIN_REVOKED_KEY, 0, -1);
+            BloomFilter<CharSequence> filter = newBloomFilter();
+            if (tokenIds != null) {
+                tokenIds.forEach(filter::put);
+            }
+            revoked = filter;
+        } catch (Exception e) {
+            //沿用旧的布隆过滤器
+            log.error("刷新令牌吊销列表失败", e);
+        }
+    }
+
+    private boolean isRevoked(long tokenId) {
+        String id = String.valueOf(tokenId);
+        if (!revoked.mightContain(id)) {
+            return false;
+        }
+        //布隆过滤器命中时以 redis 为准
+        return stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, id) != null;
+    }
+
+    private byte[] encode(UserDTO user, long expireAt, long tokenId) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(user.getId());
+            out.writeLong(expireAt);
+            out.writeLong(tokenId);
+            writeNullable(out, user.getNickName());
+            writeNullable(out, user.getIcon());
+        } catch (IOException e) {
+            throw new IllegalStateException("令牌编码失败", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解析令牌，不校验签名
+     *
+     * @return 格式错误时返回 null
+     */
+    private Token parse(String token) {
+        int index = token.indexOf(SEPARATOR);
+        if (index <= 0) {
+            return null;
+        }
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, index));
+            byte[] signature = DECODER.decode(token.substring(index + 1));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            UserDTO user = new UserDTO();
+            user.setId(in.readLong());
+            long expireAt = in.readLong();
+            long tokenId = in.readLong();
+            user.setNickName(readNullable(in));
+            user.setIcon(readNullable(in));
+            return new Token(payload, signature, user, expireAt, tokenId);
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("初始化令牌签名失败", e);
+        }
+    }
+
+    private BloomFilter<CharSequence> newBloomFilter() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, falseProbability);
+    }
+
+    private static class Token {
+        private final byte[] payload;
+        private final byte[] signature;
+        private final UserDTO user;
+        private final long expireAt;
+        private final long tokenId;
+
+        private Token(byte[] payload, byte[] signature, UserDTO user, long expireAt, long tokenId) {
+            this.payload = payload;
+            this.signature = signature;
+            this.user = user;
+            this.expireAt = expireAt;
+            this.tokenId = tokenId;
+        }
+    }
+}
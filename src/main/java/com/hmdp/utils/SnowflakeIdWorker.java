@@ -0,0 +1,197 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.constant.CommonConstant.ID_WORKER_LEASE_TTL;
+import static com.hmdp.constant.RedisKeyConstant.ID_WORKER_KEY;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/11 10:35
+ * @description 雪花 id 生成器，id 完全在本地生成，只有工作节点id的租约需要访问 redis
+ * <p>
+ * id 结构：1 位符号位 | 1 位模式位 | 40 位毫秒时间戳 | 10 位工作节点id | 12 位序列号。
+ * 模式位固定为 1，保证与 {@link RedisIdWorker} 生成的 id 不会重复，两种模式可以来回切换
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.mode", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdWorker {
+    /**
+     * 初始时间戳，单位：毫秒，沿用 redis id 的初始时间
+     */
+    private static final long BEGIN_MILLIS = TimeUnit.SECONDS.toMillis(RedisIdWorker.BEGIN_TIMESTAMP);
+    /**
+     * 工作节点id位数
+     */
+    private static final int WORKER_BITS = 10;
+    /**
+     * 序列号位数
+     */
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    /**
+     * 模式位
+     */
+    private static final long MODE_FLAG = 1L << 62;
+    /**
+     * 可容忍的时钟回拨时间，单位：毫秒，回拨不超过该值时沿用上次的时间戳继续分配
+     */
+    private static final long MAX_BACKWARD_MILLIS = 5L;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lua/id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("lua/id_worker_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 当前节点的租约持有者标识
+     */
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * 上次分配的 时间戳 << SEQUENCE_BITS | 序列号
+     */
+    private final AtomicLong lastState = new AtomicLong();
+
+    private volatile long workerId = -1;
+
+    /**
+     * 租约到期时间，超过后停止生成 id，防止其他节点已经接管同一个工作节点id
+     */
+    private volatile long leaseExpireAt;
+
+    @PostConstruct
+    public void init() {
+        if (!acquireWorkerId()) {
+            throw new IllegalStateException("没有可用的雪花 id 工作节点id");
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        long id = workerId;
+        if (id >= 0) {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(workerKey(id)), owner);
+        }
+    }
+
+    /**
+     * 获取id，不访问 redis
+     *
+     * @param keyPrefix 业务前缀，雪花 id 全局唯一，不区分业务
+     * @return {@link Long}
+     */
+    @Override
+    public Long nextId(String keyPrefix) {
+        long id = workerId;
+        if (id < 0 || System.currentTimeMillis() > leaseExpireAt) {
+            throw new IllegalStateException("雪花 id 工作节点租约已失效");
+        }
+
+        while (true) {
+            long last = lastState.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long timestamp = System.currentTimeMillis() - BEGIN_MILLIS;
+
+            long next;
+            if (timestamp > lastTimestamp) {
+                next = timestamp << SEQUENCE_BITS;
+            } else {
+                if (lastTimestamp - timestamp > MAX_BACKWARD_MILLIS) {
+                    //时钟回拨过多，拒绝生成，避免重复
+                    throw new IllegalStateException("时钟回拨 " + (lastTimestamp - timestamp) + " 毫秒，拒绝生成 id");
+                }
+                if ((last & MAX_SEQUENCE) == MAX_SEQUENCE) {
+                    //同一毫秒内序列号用尽，或小幅回拨后序列号用尽，等待时钟追上
+                    Thread.yield();
+                    continue;
+                }
+                //同一毫秒或小幅回拨时沿用上次的时间戳
+                next = last + 1;
+            }
+
+            if (lastState.compareAndSet(last, next)) {
+                long timestampPart = next >>> SEQUENCE_BITS;
+                return MODE_FLAG
+                        | timestampPart << (WORKER_BITS + SEQUENCE_BITS)
+                        | id << SEQUENCE_BITS
+                        | (next & MAX_SEQUENCE);
+            }
+        }
+    }
+
+    /**
+     * 定时续租，租约丢失时重新申请工作节点id
+     */
+    @Scheduled(fixedDelay = 20000)
+    public void renew() {
+        long id = workerId;
+        if (id >= 0) {
+            long now = System.currentTimeMillis();
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(workerKey(id)), owner, String.valueOf(ID_WORKER_LEASE_TTL));
+            if (result != null && result == 1L) {
+                leaseExpireAt = now + ID_WORKER_LEASE_TTL;
+                return;
+            }
+            log.error("雪花 id 工作节点租约丢失，工作节点id：{}", id);
+            workerId = -1;
+        }
+
+        if (!acquireWorkerId()) {
+            //飞书群消息警告，人工干预
+            log.error("没有可用的雪花 id 工作节点id");
+        }
+    }
+
+    /**
+     * 从 redis 申请一个空闲的工作节点id
+     */
+    private boolean acquireWorkerId() {
+        for (long id = 0; id <= MAX_WORKER_ID; id++) {
+            long now = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(workerKey(id), owner, ID_WORKER_LEASE_TTL, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseExpireAt = now + ID_WORKER_LEASE_TTL;
+                workerId = id;
+                log.warn("获取雪花 id 工作节点id：{}", id);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String workerKey(long id) {
+        return String.format(ID_WORKER_KEY, id);
+    }
+}
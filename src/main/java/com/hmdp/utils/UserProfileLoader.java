@@ -0,0 +1,135 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.UserMapper;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
+
+/**
+ * @author zhangxiulin
+ * @date 2023/12/22 10:00
+ * @description 批量加载用户公开信息，给列表数据填充作者昵称和头像
+ * <p>
+ * 一页数据的用户id去重后通过一次 MGET 读取缓存，未命中的用户一次 listByIds 查询数据库，再通过管道回填缓存，
+ * 每页最多访问 redis 两次、数据库一次，与每页条数无关。缓存格式由 {@link CacheCodec} 决定
+ */
+@Component
+public class UserProfileLoader {
+    @Resource
+    private RedisTemplate<String, byte[]> bytesRedisTemplate;
+    @Resource
+    private CacheCodec cacheCodec;
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 给列表中的每条数据填充用户信息，用户不存在时不填充
+     *
+     * @param records  列表数据
+     * @param userId   获取数据所属的用户id
+     * @param consumer 填充用户信息
+     */
+    public <T> void fill(List<T> records, Function<T, Long> userId, BiConsumer<T, UserDTO> consumer) {
+        Map<Long, UserDTO> users = loadAll(records.stream().map(userId).collect(Collectors.toList()));
+        for (T record : records) {
+            UserDTO user = users.get(userId.apply(record));
+            if (user != null) {
+                consumer.accept(record, user);
+            }
+        }
+    }
+
+    /**
+     * 批量查询用户信息
+     *
+     * @return 用户id -> 用户信息，不存在的用户不包含在结果中
+     */
+    public Map<Long, UserDTO> loadAll(Collection<Long> userIds) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        ids.remove(null);
+        Map<Long, UserDTO> users = new HashMap<>(ids.size() * 2);
+        if (ids.isEmpty()) {
+            return users;
+        }
+
+        //一次 MGET 读取缓存
+        List<byte[]> cached = bytesRedisTemplate.opsForValue()
+                .multiGet(ids.stream().map(id -> CACHE_USER_KEY + id).collect(Collectors.toList()));
+        List<Long> misses = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] bytes = cached == null ? null : cached.get(i);
+            if (bytes == null) {
+                misses.add(ids.get(i));
+                continue;
+            }
+            if (bytes.length == 0) {
+                //缓存的空值
+                continue;
+            }
+            UserDTO user = cacheCodec.decode(bytes, UserDTO.class);
+            if (user == null) {
+                //存储格式不兼容，按未命中处理
+                misses.add(ids.get(i));
+            } else {
+                users.put(ids.get(i), user);
+            }
+        }
+        if (misses.isEmpty()) {
+            return users;
+        }
+
+        //未命中的用户一次查询数据库
+        for (User user : userMapper.selectBatchIds(misses)) {
+            users.put(user.getId(), BeanUtil.copyProperties(user, UserDTO.class));
+        }
+        writeBack(misses, users);
+        return users;
+    }
+
+    /**
+     * 用户信息修改后删除缓存
+     */
+    public void evict(Long userId) {
+        bytesRedisTemplate.delete(CACHE_USER_KEY + userId);
+    }
+
+    /**
+     * 通过管道回填缓存，数据库中不存在的用户缓存空值
+     */
+    private void writeBack(List<Long> misses, Map<Long, UserDTO> users) {
+        long ttl = TimeUnit.MINUTES.toSeconds(CACHE_USER_TTL);
+        long nullTtl = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        bytesRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : misses) {
+                byte[] key = (CACHE_USER_KEY + id).getBytes(StandardCharsets.UTF_8);
+                UserDTO user = users.get(id);
+                if (user == null) {
+                    connection.setEx(key, nullTtl, new byte[0]);
+                } else {
+                    connection.setEx(key, ttl, cacheCodec.encode(user));
+                }
+            }
+            return null;
+        });
+    }
+}
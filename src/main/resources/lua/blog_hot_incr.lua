@@ -0,0 +1,21 @@
+-- 热门博文增量更新脚本：累加互动权重，并按发布时间衰减重新计算排名分数
+-- KEYS[1] 排名 zset
+-- KEYS[2] 互动权重 zset
+-- KEYS[3] 发布时间 zset，score 为发布时间，单位：毫秒
+-- ARGV[1] 博文id
+-- ARGV[2] 权重增量
+-- ARGV[3] 当前时间，单位：毫秒
+-- ARGV[4] 衰减指数
+-- 返回 1 已更新，0 博文不在排名范围内
+
+local createTime = redis.call('zscore', KEYS[3], ARGV[1])
+if not createTime then
+    return 0
+end
+local weight = tonumber(redis.call('zincrby', KEYS[2], ARGV[2], ARGV[1]))
+local hours = (tonumber(ARGV[3]) - tonumber(createTime)) / 3600000
+if hours < 0 then
+    hours = 0
+end
+redis.call('zadd', KEYS[1], weight / math.pow(hours + 2, tonumber(ARGV[4])), ARGV[1])
+return 1
@@ -0,0 +1,22 @@
+-- 博文点赞脚本：同一用户重复调用时在点赞和取消点赞之间切换，点赞数在 redis 中累计，并标记为待落库
+-- KEYS[1] 博文点赞用户 zset，score 为点赞时间
+-- KEYS[2] 博文点赞数 hash
+-- KEYS[3] 待落库的博文id set
+-- ARGV[1] 博文id
+-- ARGV[2] 用户id
+-- ARGV[3] 当前时间，单位：毫秒
+-- 返回 1 点赞，-1 取消点赞，0 点赞数尚未从数据库初始化
+
+if redis.call('hexists', KEYS[2], ARGV[1]) == 0 then
+    return 0
+end
+local delta = 1
+if redis.call('zscore', KEYS[1], ARGV[2]) then
+    redis.call('zrem', KEYS[1], ARGV[2])
+    delta = -1
+else
+    redis.call('zadd', KEYS[1], ARGV[3], ARGV[2])
+end
+redis.call('hincrby', KEYS[2], ARGV[1], delta)
+redis.call('sadd', KEYS[3], ARGV[1])
+return delta
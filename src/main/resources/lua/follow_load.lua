@@ -0,0 +1,43 @@
+-- 关注集合加载脚本，从数据库加载分为开始、追加、完成三步
+-- KEYS[1] 集合，KEYS[2] 加载中集合，KEYS[3] 加载期间变化过的成员
+-- ARGV[1] 步骤：begin、append、finish
+-- begin：读取数据库快照之前执行，之后的关注和取关都会应用到加载中集合。
+--        ARGV[2] 加载超时时间（秒）。返回 1 开始加载，0 集合已经存在，2 其他请求正在加载
+-- append：ARGV[2..] 数据库快照中的成员，加载期间变化过的成员以变化为准，不写入。返回 1 成功，0 加载已经超时
+-- finish：ARGV[2] 集合过期时间（秒）。返回 1 加载完成，0 加载已经超时或集合已经存在
+
+local step = ARGV[1]
+if step == 'begin' then
+    if redis.call('exists', KEYS[1]) == 1 then
+        return 0
+    end
+    if redis.call('exists', KEYS[2]) == 1 then
+        return 2
+    end
+    redis.call('del', KEYS[3])
+    -- 占位成员，没有关注的用户也有一个已加载的集合
+    redis.call('sadd', KEYS[2], '0')
+    redis.call('expire', KEYS[2], ARGV[2])
+    return 1
+end
+
+if redis.call('exists', KEYS[2]) == 0 then
+    return 0
+end
+if step == 'append' then
+    for i = 2, #ARGV do
+        if redis.call('sismember', KEYS[3], ARGV[i]) == 0 then
+            redis.call('sadd', KEYS[2], ARGV[i])
+        end
+    end
+    return 1
+end
+
+if redis.call('exists', KEYS[1]) == 1 then
+    redis.call('del', KEYS[2], KEYS[3])
+    return 0
+end
+redis.call('rename', KEYS[2], KEYS[1])
+redis.call('expire', KEYS[1], ARGV[2])
+redis.call('del', KEYS[3])
+return 1
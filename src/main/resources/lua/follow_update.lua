@@ -0,0 +1,27 @@
+-- 关注关系缓存更新脚本：更新已经加载的集合和正在加载的集合，未加载的集合在下次读取时从数据库加载
+-- KEYS[1] 关注者的关注集合，KEYS[2] 其加载中集合，KEYS[3] 其加载期间变化过的成员
+-- KEYS[4] 被关注者的粉丝集合，KEYS[5] 其加载中集合，KEYS[6] 其加载期间变化过的成员
+-- ARGV[1] 1 关注，0 取关
+-- ARGV[2] 被关注者id
+-- ARGV[3] 关注者id
+-- 加载中的集合直接应用本次变化并记录变化的成员，数据库快照中的这些成员不再写入，避免旧快照覆盖新的变化
+
+local command = 'srem'
+if ARGV[1] == '1' then
+    command = 'sadd'
+end
+
+local function apply(set, loading, changed, member)
+    if redis.call('exists', set) == 1 then
+        redis.call(command, set, member)
+    end
+    if redis.call('exists', loading) == 1 then
+        redis.call(command, loading, member)
+        redis.call('sadd', changed, member)
+        redis.call('pexpire', changed, redis.call('pttl', loading))
+    end
+end
+
+apply(KEYS[1], KEYS[2], KEYS[3], ARGV[2])
+apply(KEYS[4], KEYS[5], KEYS[6], ARGV[3])
+return 1
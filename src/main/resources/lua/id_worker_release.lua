@@ -0,0 +1,8 @@
+-- 工作节点id释放脚本：只有持有者才能释放
+-- KEYS[1] 工作节点id key
+-- ARGV[1] 持有者标识
+
+if redis.call('get', KEYS[1]) == ARGV[1] then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -0,0 +1,9 @@
+-- 工作节点id续租脚本：只有持有者才能续租
+-- KEYS[1] 工作节点id key
+-- ARGV[1] 持有者标识，ARGV[2] 租期，单位：毫秒
+
+if redis.call('get', KEYS[1]) == ARGV[1] then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
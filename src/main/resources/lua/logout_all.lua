@@ -0,0 +1,11 @@
+-- 退出所有设备脚本：删除用户索引中的全部登录 token 及索引本身
+-- KEYS[1] 用户的 token 索引 key
+-- ARGV[1] 登录 token key 前缀
+-- 返回被删除的 token，调用方据此吊销无状态令牌并通知各节点
+
+local tokens = redis.call('zrange', KEYS[1], 0, -1)
+for _, token in ipairs(tokens) do
+    redis.call('del', ARGV[1] .. token)
+end
+redis.call('del', KEYS[1])
+return tokens
@@ -0,0 +1,22 @@
+-- 滑动窗口限流脚本：窗口内的请求记录在 zset 中，score 为请求时间
+-- 同一请求的多个限流 key 先全部检查，都有许可时才一起记录，被某个 key 拒绝的请求不占用其他 key 的许可
+-- KEYS[1..n] 限流 key
+-- ARGV[1] 当前时间，单位：毫秒
+-- ARGV[2] 本次请求的唯一标识
+-- ARGV[2i+1] 第 i 个 key 的窗口大小，单位：毫秒
+-- ARGV[2i+2] 第 i 个 key 窗口内允许的请求数
+-- 返回 1 放行，0 拒绝
+
+local now = tonumber(ARGV[1])
+for i, key in ipairs(KEYS) do
+    -- 移除窗口外的请求
+    redis.call('zremrangebyscore', key, 0, now - tonumber(ARGV[2 * i + 1]))
+    if redis.call('zcard', key) >= tonumber(ARGV[2 * i + 2]) then
+        return 0
+    end
+end
+for i, key in ipairs(KEYS) do
+    redis.call('zadd', key, now, ARGV[2])
+    redis.call('pexpire', key, ARGV[2 * i + 1])
+end
+return 1
@@ -0,0 +1,28 @@
+-- 秒杀资格判断脚本：时间窗口、库存、一人一单的校验与扣减在一次调用内原子完成
+-- KEYS[1] 库存 key，KEYS[2] 已下单用户集合 key
+-- ARGV[1] 用户id，ARGV[2] 当前时间，ARGV[3] 开始时间，ARGV[4] 结束时间（均为毫秒时间戳）
+-- 返回值：0 成功，1 库存不足，2 重复下单，3 尚未开始，4 已经结束，5 库存未初始化
+
+local now = tonumber(ARGV[2])
+if now < tonumber(ARGV[3]) then
+    return 3
+end
+if now > tonumber(ARGV[4]) then
+    return 4
+end
+
+local stock = redis.call('get', KEYS[1])
+if not stock then
+    return 5
+end
+if tonumber(stock) <= 0 then
+    return 1
+end
+
+if redis.call('sismember', KEYS[2], ARGV[1]) == 1 then
+    return 2
+end
+
+redis.call('decr', KEYS[1])
+redis.call('sadd', KEYS[2], ARGV[1])
+return 0
@@ -0,0 +1,9 @@
+-- 秒杀资格回滚脚本：下单消息发送失败时归还库存与一人一单名额
+-- KEYS[1] 库存 key，KEYS[2] 已下单用户集合 key
+-- ARGV[1] 用户id
+
+if redis.call('srem', KEYS[2], ARGV[1]) == 1 then
+    redis.call('incr', KEYS[1])
+    return 1
+end
+return 0
@@ -0,0 +1,8 @@
+-- 秒杀库存补充脚本：库存已经初始化时才累加，未初始化的库存需要重新同步，不在这里创建
+-- KEYS[1] 库存 key
+-- ARGV[1] 补充的数量
+
+if redis.call('exists', KEYS[1]) == 1 then
+    return redis.call('incrby', KEYS[1], ARGV[1])
+end
+return -1
@@ -0,0 +1,20 @@
+-- 秒杀库存重新同步脚本：库存 key 丢失后由运维在下单消息消费完后触发，库存已经存在时不覆盖
+-- KEYS[1] 库存 key，KEYS[2] 已下单用户集合 key
+-- ARGV[1] 数据库库存，ARGV[2] 数据库中该券的订单数
+-- 已下单用户集合中尚未落库的用户视为在途订单，从数据库库存中扣除
+-- 返回值：同步后的库存，库存已经存在时返回 -1
+
+if redis.call('exists', KEYS[1]) == 1 then
+    return -1
+end
+
+local pending = redis.call('scard', KEYS[2]) - tonumber(ARGV[2])
+if pending < 0 then
+    pending = 0
+end
+local stock = tonumber(ARGV[1]) - pending
+if stock < 0 then
+    stock = 0
+end
+redis.call('set', KEYS[1], stock)
+return stock
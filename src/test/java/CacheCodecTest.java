@@ -0,0 +1,122 @@
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 缓存编解码器的正确性和性能对比，不依赖 redis
+ */
+public class CacheCodecTest {
+    private static final int ROUNDS = 200000;
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+    private final CacheCodec binaryCodec = new BinaryCacheCodec(4096);
+    private final CacheCodec compressedCodec = new BinaryCacheCodec(1);
+
+    @Test
+    public void testRoundTrip() {
+        Shop shop = shop();
+        assertEquals(shop, binaryCodec.decode(binaryCodec.encode(shop), Shop.class));
+        assertEquals(shop, jsonCodec.decode(jsonCodec.encode(shop), Shop.class));
+        assertEquals(shop, compressedCodec.decode(compressedCodec.encode(shop), Shop.class));
+
+        LocalDateTime expireTime = LocalDateTime.now().withNano(0);
+        RedisData redisData = binaryCodec.decodeWithExpire(binaryCodec.encodeWithExpire(shop, expireTime), Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(shop, redisData.getData());
+        redisData = jsonCodec.decodeWithExpire(jsonCodec.encodeWithExpire(shop, expireTime), Shop.class);
+        assertEquals(shop, redisData.getData());
+
+        //数据库中的数据已经删除时，逻辑过期重建写入 null
+        redisData = binaryCodec.decodeWithExpire(binaryCodec.encodeWithExpire(null, expireTime), Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(null, redisData.getData());
+        assertEquals(null, binaryCodec.decode(binaryCodec.encode(null), Shop.class));
+
+        //切换编解码器后旧数据按未命中处理
+        assertEquals(null, binaryCodec.decode(jsonCodec.encode(shop), Shop.class));
+        assertEquals(null, jsonCodec.decode(binaryCodec.encode(shop), Shop.class));
+    }
+
+    @Test
+    public void testBenchmark() {
+        benchmark("Shop", shop(), Shop.class);
+        benchmark("SeckillVoucher", seckillVoucher(), SeckillVoucher.class);
+        benchmark("UserDTO", userDTO(), UserDTO.class);
+    }
+
+    private <T> void benchmark(String name, T value, Class<T> type) {
+        for (CacheCodec codec : new CacheCodec[]{jsonCodec, binaryCodec}) {
+            //预热
+            for (int i = 0; i < ROUNDS; i++) {
+                codec.decode(codec.encode(value), type);
+            }
+
+            byte[] bytes = null;
+            long begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                bytes = codec.encode(value);
+            }
+            long encode = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                codec.decode(bytes, type);
+            }
+            long decode = System.nanoTime() - begin;
+
+            System.out.printf("%-15s %-16s 大小：%5d 字节，编码：%5d ns/次，解码：%5d ns/次%n",
+                    name, codec.getClass().getSimpleName(), bytes.length, encode / ROUNDS, decode / ROUNDS);
+        }
+    }
+
+    private Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            images.append("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,");
+        }
+        shop.setImages(images.toString());
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.now().withNano(0));
+        shop.setUpdateTime(LocalDateTime.now().withNano(0));
+        return shop;
+    }
+
+    private SeckillVoucher seckillVoucher() {
+        SeckillVoucher voucher = new SeckillVoucher();
+        voucher.setVoucherId(10L);
+        voucher.setCreateTime(LocalDateTime.now().withNano(0));
+        voucher.setBeginTime(LocalDateTime.now().withNano(0));
+        voucher.setEndTime(LocalDateTime.now().withNano(0).plusDays(1));
+        voucher.setUpdateTime(LocalDateTime.now().withNano(0));
+        return voucher;
+    }
+
+    private UserDTO userDTO() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_fd2kslk3m2");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        return user;
+    }
+}
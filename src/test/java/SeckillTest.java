@@ -0,0 +1,132 @@
+import com.hmdp.HmDianPingApplication;
+import com.hmdp.dto.SeckillMessage;
+import com.hmdp.utils.SeckillScriptExecutor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import static com.hmdp.constant.RedisKeyConstant.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(classes = HmDianPingApplication.class)
+public class SeckillTest {
+    private static final Long VOUCHER_ID = 999999L;
+    private static final int STOCK = 100;
+
+    @Resource
+    private SeckillScriptExecutor seckillScriptExecutor;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+    @Resource
+    private AmqpAdmin amqpAdmin;
+
+    @BeforeEach
+    public void reset() {
+        stringRedisTemplate.delete(SECKILL_STOCK_KEY + VOUCHER_ID);
+        stringRedisTemplate.delete(String.format(SECKILL_ORDER_KEY, VOUCHER_ID));
+        seckillScriptExecutor.resetStock(VOUCHER_ID, STOCK);
+    }
+
+    @Test
+    public void testNoOversell() throws InterruptedException {
+        int callers = 5000;
+        AtomicInteger success = new AtomicInteger();
+        runConcurrently(callers, i -> {
+            long result = seckillScriptExecutor.tryAcquire(VOUCHER_ID, (long) i,
+                    LocalDateTime.now().minusMinutes(1), LocalDateTime.now().plusMinutes(1));
+            if (result == SeckillScriptExecutor.SUCCESS) {
+                success.incrementAndGet();
+            }
+        });
+
+        assertEquals(STOCK, success.get());
+        assertEquals("0", stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + VOUCHER_ID));
+        assertEquals(STOCK, stringRedisTemplate.opsForSet().size(String.format(SECKILL_ORDER_KEY, VOUCHER_ID)).intValue());
+    }
+
+    @Test
+    public void testOnePersonOneOrder() throws InterruptedException {
+        AtomicInteger success = new AtomicInteger();
+        runConcurrently(1000, i -> {
+            long result = seckillScriptExecutor.tryAcquire(VOUCHER_ID, 1L,
+                    LocalDateTime.now().minusMinutes(1), LocalDateTime.now().plusMinutes(1));
+            if (result == SeckillScriptExecutor.SUCCESS) {
+                success.incrementAndGet();
+            }
+        });
+
+        assertEquals(1, success.get());
+        assertEquals(String.valueOf(STOCK - 1), stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + VOUCHER_ID));
+    }
+
+    /**
+     * 发布+确认的吞吐量，发送到临时的匿名队列，不会被秒杀消费者处理，测试结束后删除
+     */
+    @Test
+    public void testSendThroughput() throws Exception {
+        Queue queue = new AnonymousQueue();
+        amqpAdmin.declareQueue(queue);
+        try {
+            int messages = 100000;
+            List<CorrelationData> confirms = new CopyOnWriteArrayList<>();
+            long begin = System.currentTimeMillis();
+            runConcurrently(messages, i -> {
+                CorrelationData correlationData = new CorrelationData("test:" + i);
+                confirms.add(correlationData);
+                rabbitTemplate.convertAndSend("", queue.getName(),
+                        new SeckillMessage((long) i, VOUCHER_ID, (long) i), correlationData);
+            });
+            for (CorrelationData correlationData : confirms) {
+                correlationData.getFuture().get(10, TimeUnit.SECONDS);
+            }
+            long cost = Math.max(System.currentTimeMillis() - begin, 1);
+            System.out.println("发送并确认 " + messages + " 条消息，速率：" + messages * 1000L / cost + " msg/s");
+        } finally {
+            amqpAdmin.deleteQueue(queue.getName());
+        }
+    }
+
+    private void runConcurrently(int callers, IntConsumer task) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(500);
+        CountDownLatch ready = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(callers);
+        for (int i = 0; i < callers; i++) {
+            int index = i;
+            executorService.submit(() -> {
+                try {
+                    ready.await();
+                    task.accept(index);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.currentTimeMillis();
+        ready.countDown();
+        done.await();
+        System.out.println("耗时：" + (System.currentTimeMillis() - begin));
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,76 @@
+import com.hmdp.utils.SignBitmaps;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 连续签到天数计算的正确性和性能对比，不依赖 redis
+ */
+public class SignBitmapsTest {
+    private static final int ROUNDS = 5000000;
+
+    @Test
+    public void testTrailingOnes() {
+        assertEquals(0, SignBitmaps.trailingOnes(0L));
+        assertEquals(0, SignBitmaps.trailingOnes(0b110L));
+        assertEquals(3, SignBitmaps.trailingOnes(0b1011_0111L));
+        //整月全部签到，结果不超过读取的位数
+        assertEquals(31, SignBitmaps.trailingOnes((1L << 31) - 1));
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            long bits = random.nextLong() & ((1L << 31) - 1);
+            assertEquals(countByString(bits), SignBitmaps.trailingOnes(bits));
+        }
+    }
+
+    @Test
+    public void testBenchmark() {
+        long[] samples = new long[1024];
+        Random random = new Random(1);
+        for (int i = 0; i < samples.length; i++) {
+            //末尾连续签到的天数随机
+            samples[i] = ((1L << random.nextInt(31)) - 1) | ((long) random.nextInt() << 31 >>> 1);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            long sum = 0;
+            long begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                sum += countByString(samples[i & 1023]);
+            }
+            long string = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                sum -= SignBitmaps.trailingOnes(samples[i & 1023]);
+            }
+            long bits = System.nanoTime() - begin;
+
+            assertEquals(0, sum);
+            //第一轮为预热
+            if (round == 1) {
+                System.out.printf("二进制字符串：%d ns/次，位运算：%d ns/次%n",
+                        string / ROUNDS, bits / ROUNDS);
+            }
+        }
+    }
+
+    /**
+     * 原来的实现：转二进制字符串后从末尾逐个字符统计
+     */
+    private int countByString(long bits) {
+        String binaryString = Long.toBinaryString(bits);
+        int count = 0;
+        for (int i = binaryString.length() - 1; i >= 0; i--) {
+            if (binaryString.charAt(i) == '1') {
+                count++;
+            } else {
+                break;
+            }
+        }
+        return count;
+    }
+}